@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the conversion benchmarks with the GC profiler attached, so every result reports allocation rate per
+ * operation alongside throughput. Takes the usual JMH command line, for example <code>-p inventorySize=10000</code>
+ * or a regular expression naming the benchmarks to run.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class ConversionBenchmarks {
+    static public void main(String ... args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        Options options = new OptionsBuilder().parent(cli).addProfiler(GCProfiler.class).build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.bench;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.CloudSigmaMetrics;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Loads the recorded CloudSigma responses under <code>/payloads</code> and sets up a provider the converters can
+ * run against without reaching CloudSigma.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class Payloads {
+    /**
+     * The account that owns the resources in the recorded payloads.
+     */
+    static public final String ACCOUNT = "5b4a69a3-8e78-4c45-a8ba-8b13f0895e23";
+
+    /**
+     * @return a provider connected to a context that carries everything the converters read
+     */
+    static public @Nonnull CloudSigma newProvider() {
+        ProviderContext ctx = new ProviderContext();
+        Properties custom = new Properties();
+        CloudSigma provider = new CloudSigma();
+
+        custom.setProperty(CloudSigmaMetrics.JMX_ENABLED, "false");
+        ctx.setAccountNumber(ACCOUNT);
+        ctx.setAccessPublic(new byte[0]);
+        ctx.setAccessPrivate(new byte[0]);
+        ctx.setRegionId("zrh");
+        ctx.setCustomProperties(custom);
+        provider.connect(ctx);
+        return provider;
+    }
+
+    /**
+     * Reads the objects from a recorded listing and repeats them until there are as many as asked for, so the same
+     * few recorded resources can stand in for an inventory of any size.
+     * @param name the name of the payload, such as <code>servers</code>
+     * @param size the number of objects to return
+     * @return the objects, each parsed once
+     * @throws IOException the payload could not be read
+     * @throws JSONException the payload is not valid JSON
+     */
+    static public @Nonnull JSONObject[] load(@Nonnull String name, int size) throws IOException, JSONException {
+        JSONArray recorded = new JSONObject(read(name)).getJSONArray("objects");
+        JSONObject[] objects = new JSONObject[size];
+
+        for (int i = 0; i < size; i++) {
+            objects[i] = recorded.getJSONObject(i % recorded.length());
+        }
+        return objects;
+    }
+
+    static private @Nonnull String read(@Nonnull String name) throws IOException {
+        InputStream in = Payloads.class.getResourceAsStream("/payloads/" + name + ".json");
+
+        if (in == null) {
+            throw new IOException("No recorded payload named " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("utf-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+}
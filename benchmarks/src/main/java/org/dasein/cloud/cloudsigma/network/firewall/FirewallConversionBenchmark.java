@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.network.firewall;
+
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.bench.Payloads;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of recorded firewall policy listings into firewalls and of their rules into firewall
+ * rules. Each operation converts one whole listing, so the score reads as listings converted per second at the
+ * given inventory size.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FirewallConversionBenchmark {
+    @Param({"100", "10000"})
+    public int inventorySize;
+
+    private CloudSigma            provider;
+    private ServerFirewallSupport support;
+    private JSONObject[]          policies;
+
+    @Setup
+    public void setUp() throws Exception {
+        provider = Payloads.newProvider();
+        support = new ServerFirewallSupport(provider);
+        policies = Payloads.load("fwpolicies", inventorySize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Benchmark
+    public void toFirewall(Blackhole blackhole) throws Exception {
+        for (JSONObject policy : policies) {
+            blackhole.consume(support.toFirewall(policy));
+        }
+    }
+
+    @Benchmark
+    public void toFirewallRule(Blackhole blackhole) throws Exception {
+        for (JSONObject policy : policies) {
+            String firewallId = policy.getString("uuid");
+            JSONArray rules = policy.getJSONArray("rules");
+
+            for (int i = 0; i < rules.length(); i++) {
+                blackhole.consume(support.toFirewallRule(rules.getJSONObject(i), firewallId));
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the requests made against CloudSigma so the cost of an operation can be measured and held to a budget.
+ * Register it with {@link CloudSigma#addInterceptor(CloudSigmaInterceptor)}, run the operation, and compare
+ * {@link #getCount()} with what the operation is allowed to make. Because provider interceptors run ahead of the
+ * inventory cache, requests the cache answers are counted too, so the budget holds whether or not caching is on.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class ApiCallCounter implements CloudSigmaInterceptor {
+    private final List<String>         calls = new ArrayList<String>();
+    private final Map<String, Integer> verbs = new HashMap<String, Integer>();
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        String verb = request.getMethod();
+
+        synchronized (this) {
+            Integer count = verbs.get(verb);
+
+            verbs.put(verb, count == null ? 1 : count + 1);
+            calls.add(verb + " " + CloudSigmaMetrics.normalize(request.getResource()));
+        }
+        return chain.proceed(request);
+    }
+
+    /**
+     * @return the calls counted so far in the order they were made, each as the verb and normalized path such as
+     * <code>GET /servers/detail/</code>
+     */
+    public synchronized @Nonnull List<String> getCalls() {
+        return Collections.unmodifiableList(new ArrayList<String>(calls));
+    }
+
+    /**
+     * @return the total number of calls counted so far
+     */
+    public synchronized int getCount() {
+        return calls.size();
+    }
+
+    /**
+     * @param verb the HTTP verb, such as {@link CloudSigmaRequest#GET}
+     * @return the number of calls counted so far with the specified verb
+     */
+    public synchronized int getCount(@Nonnull String verb) {
+        Integer count = verbs.get(verb);
+
+        return (count == null ? 0 : count);
+    }
+
+    /**
+     * Starts counting again from zero.
+     */
+    public synchronized void reset() {
+        calls.clear();
+        verbs.clear();
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the recent outcomes of calls to one CloudSigma endpoint and decides whether further calls are let through.
+ * A closed breaker lets every call through and counts failures over a fixed window. Once enough of the calls in the
+ * window have failed it opens and rejects calls outright. After a cooling-off period it half-opens and lets a single
+ * probe through; the probe closes the breaker if it succeeds and opens it again if it fails.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CircuitBreaker implements CircuitBreakerMBean {
+    static private final Logger logger = CloudSigma.getLogger(CircuitBreaker.class);
+
+    static public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * The thresholds a breaker is judged against.
+     */
+    static public class Policy {
+        private final int  failurePercent;
+        private final int  minimumCalls;
+        private final long openMillis;
+        private final long windowMillis;
+
+        /**
+         * @param failurePercent the share of failed calls in a window, from 1 to 100, that opens the breaker
+         * @param minimumCalls the number of calls a window needs before the breaker may open
+         * @param windowMillis how long failures are counted before the counts start over
+         * @param openMillis how long the breaker stays open before a probe is let through
+         */
+        public Policy(int failurePercent, int minimumCalls, long windowMillis, long openMillis) {
+            this.failurePercent = Math.min(100, Math.max(1, failurePercent));
+            this.minimumCalls = Math.max(1, minimumCalls);
+            this.windowMillis = Math.max(1L, windowMillis);
+            this.openMillis = Math.max(0L, openMillis);
+        }
+    }
+
+    private long         calls = 0L;
+    private long         failures = 0L;
+    private final String name;
+    private long         openedAt = 0L;
+    private boolean      probing = false;
+    private long         rejected = 0L;
+    private State        state = State.CLOSED;
+    private long         trips = 0L;
+    private long         windowStart = System.currentTimeMillis();
+
+    public CircuitBreaker(@Nonnull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Asks to make a call.
+     * @param policy the thresholds to apply
+     * @return the state the call was let through in, to be handed back to {@link #record(State, boolean, Policy)},
+     * or null if the call must not be made
+     */
+    public synchronized @Nullable State tryAcquire(@Nonnull Policy policy) {
+        long now = System.currentTimeMillis();
+
+        if (state.equals(State.OPEN)) {
+            if (now - openedAt < policy.openMillis) {
+                rejected++;
+                return null;
+            }
+            logger.info("Probing " + name + " after " + (now - openedAt) + "ms open");
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state.equals(State.HALF_OPEN)) {
+            if (probing) {
+                rejected++;
+                return null;
+            }
+            probing = true;
+            return State.HALF_OPEN;
+        }
+        return State.CLOSED;
+    }
+
+    /**
+     * Records the outcome of a call let through by {@link #tryAcquire(Policy)}.
+     * @param admitted the state returned when the call was let through
+     * @param failed true if the call failed or was too slow
+     * @param policy the thresholds to apply
+     */
+    public synchronized void record(@Nonnull State admitted, boolean failed, @Nonnull Policy policy) {
+        long now = System.currentTimeMillis();
+
+        if (admitted.equals(State.HALF_OPEN)) {
+            probing = false;
+            if (failed) {
+                trip(now, "a failed probe");
+            } else {
+                logger.info("Closing " + name + " after a successful probe");
+                state = State.CLOSED;
+                startWindow(now);
+            }
+            return;
+        }
+        if (!state.equals(State.CLOSED)) {
+            //a call from before the breaker opened
+            return;
+        }
+        if (now - windowStart >= policy.windowMillis) {
+            startWindow(now);
+        }
+        calls++;
+        if (failed) {
+            failures++;
+        }
+        if (calls >= policy.minimumCalls && failures * 100L >= calls * policy.failurePercent) {
+            trip(now, failures + " failures in " + calls + " calls");
+        }
+    }
+
+    @Override
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized @Nonnull String getState() {
+        return state.name();
+    }
+
+    /**
+     * @return the number of calls counted in the current window
+     */
+    @Override
+    public synchronized long getCallCount() {
+        return calls;
+    }
+
+    /**
+     * @return the number of failed calls counted in the current window
+     */
+    @Override
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * @return the number of calls rejected because the breaker was open
+     */
+    @Override
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * @return the number of times the breaker has opened
+     */
+    @Override
+    public synchronized long getTripCount() {
+        return trips;
+    }
+
+    /**
+     * Closes the breaker and clears its counts.
+     */
+    @Override
+    public synchronized void reset() {
+        state = State.CLOSED;
+        probing = false;
+        rejected = 0L;
+        trips = 0L;
+        startWindow(System.currentTimeMillis());
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        calls = 0L;
+        failures = 0L;
+    }
+
+    private void trip(long now, @Nonnull String reason) {
+        logger.warn("Opening " + name + " after " + reason);
+        state = State.OPEN;
+        openedAt = now;
+        trips++;
+        startWindow(now);
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Guards each CloudSigma endpoint, and optionally each resource type on it, with a {@link CircuitBreaker} so that a
+ * degraded location makes callers fail fast with a {@link CircuitOpenException} instead of every thread waiting out
+ * its own timeout. I/O errors, 5xx responses and calls slower than the slow-call threshold count as failures;
+ * throttling and other client errors do not. Streamed listings are not timed, since their length depends on the size
+ * of the inventory rather than the health of the endpoint. Breakers belong to a single provider and, unless JMX is
+ * turned off with {@link CloudSigmaMetrics#JMX_ENABLED}, each is published as an MBean until the provider is closed.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CircuitBreakers implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(CircuitBreakers.class);
+
+    /**
+     * Custom property that, when <code>false</code>, lets every call through regardless of failures (default true).
+     */
+    static public final String ENABLED = "circuitBreakerEnabled";
+
+    /**
+     * Custom property for whether each resource type gets its own breaker rather than one per endpoint (default false).
+     */
+    static public final String PER_RESOURCE_TYPE = "circuitBreakerPerResourceType";
+
+    /**
+     * Custom property for the percentage of failed calls in a window that opens a breaker (default 50).
+     */
+    static public final String FAILURE_PERCENT = "circuitBreakerFailurePercent";
+
+    /**
+     * Custom property for how many calls a window needs before its breaker may open (default 20).
+     */
+    static public final String MINIMUM_CALLS = "circuitBreakerMinimumCalls";
+
+    /**
+     * Custom property for how long in milliseconds failures are counted before the counts start over (default 60000).
+     */
+    static public final String WINDOW = "circuitBreakerWindowMillis";
+
+    /**
+     * Custom property for how long in milliseconds a breaker stays open before probing (default 30000).
+     */
+    static public final String OPEN_DURATION = "circuitBreakerOpenMillis";
+
+    /**
+     * Custom property for how long in milliseconds a call other than a streamed listing may take before it counts as a
+     * failure (default 30000).
+     */
+    static public final String SLOW_CALL = "circuitBreakerSlowCallMillis";
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final List<ObjectName>                      registered = new ArrayList<ObjectName>();
+    private final boolean                               enabled;
+    private final String                                instance;
+    private final boolean                               jmx;
+    private final boolean                               perResourceType;
+    private final CircuitBreaker.Policy                 policy;
+    private final long                                  slowCallNanos;
+    private boolean                                     closed = false;
+
+    public CircuitBreakers(@Nonnull CloudSigma provider) {
+        ProviderContext ctx = provider.getContext();
+        String account = (ctx == null ? null : ctx.getAccountNumber());
+
+        this.instance = (account == null ? "" : account + "-") + Integer.toHexString(System.identityHashCode(provider));
+        this.enabled = provider.getBooleanProperty(ENABLED, true);
+        this.jmx = provider.getBooleanProperty(CloudSigmaMetrics.JMX_ENABLED, true);
+        this.perResourceType = provider.getBooleanProperty(PER_RESOURCE_TYPE, false);
+        this.policy = new CircuitBreaker.Policy((int) provider.getLongProperty(FAILURE_PERCENT, 50L), (int) provider.getLongProperty(MINIMUM_CALLS, 20L), provider.getLongProperty(WINDOW, 60000L), provider.getLongProperty(OPEN_DURATION, 30000L));
+        this.slowCallNanos = Math.max(1L, provider.getLongProperty(SLOW_CALL, 30000L)) * 1000000L;
+    }
+
+    /**
+     * @return true if calls through this provider are guarded by circuit breakers
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return every breaker this provider has created so far
+     */
+    public @Nonnull List<CircuitBreaker> getBreakers() {
+        return new ArrayList<CircuitBreaker>(breakers.values());
+    }
+
+    /**
+     * Provides the breaker guarding a request.
+     * @param request the request to be guarded
+     * @return the breaker for the request's endpoint and, if configured, its resource type
+     */
+    public @Nonnull CircuitBreaker getBreaker(@Nonnull CloudSigmaRequest request) {
+        String key = request.getUri().getScheme() + "://" + request.getUri().getAuthority();
+
+        if (perResourceType) {
+            String path = CloudSigmaMetrics.normalize(request.getResource());
+            int idx = path.indexOf('/', 1);
+
+            key = key + (idx < 0 ? path : path.substring(0, idx + 1));
+        }
+        CircuitBreaker breaker = breakers.get(key);
+
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(key);
+
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+                if (jmx) {
+                    register(created);
+                }
+            }
+        }
+        return breaker;
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        CircuitBreaker breaker = getBreaker(request);
+        CircuitBreaker.State admitted = breaker.tryAcquire(policy);
+
+        if (admitted == null) {
+            throw new CircuitOpenException(breaker.getName());
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            CloudSigmaResponse response = chain.proceed(request);
+
+            failed = (response.getStatusCode() >= 500);
+            return response;
+        } catch (CloudException e) {
+            Throwable cause = e.getCause();
+
+            //a full local pool says nothing about the health of the endpoint
+            failed = (cause instanceof IOException && !(cause instanceof ConnectionPoolTimeoutException));
+            throw e;
+        } catch (InternalException e) {
+            failed = false;
+            throw e;
+        } finally {
+            if (!failed && !request.isStreaming() && System.nanoTime() - start >= slowCallNanos) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Counting slow call " + request + " as a failure");
+                }
+                failed = true;
+            }
+            breaker.record(admitted, failed, policy);
+        }
+    }
+
+    /**
+     * Removes every MBean this instance published.
+     */
+    public void close() {
+        List<ObjectName> names;
+
+        synchronized (registered) {
+            closed = true;
+            names = new ArrayList<ObjectName>(registered);
+            registered.clear();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                logger.debug("Unable to unregister " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void register(@Nonnull CircuitBreaker breaker) {
+        try {
+            ObjectName name = new ObjectName(CloudSigmaMetrics.JMX_DOMAIN + ":type=CircuitBreaker,provider=" + ObjectName.quote(instance) + ",name=" + ObjectName.quote(breaker.getName()));
+
+            synchronized (registered) {
+                if (closed) {
+                    return;
+                }
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(breaker, CircuitBreakerMBean.class), name);
+                registered.add(name);
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to publish circuit breaker " + breaker.getName() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.CloudErrorType;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Raised without contacting CloudSigma when the circuit breaker for the target endpoint is open.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CircuitOpenException extends CloudSigmaException {
+    public CircuitOpenException(@Nonnull String breaker) {
+        super(CloudErrorType.COMMUNICATION, CloudSigmaMethod.SERVICE_UNAVAILABLE, "CircuitOpen", "Requests to " + breaker + " are suspended after repeated failures");
+    }
+}
@@ -23,10 +23,18 @@ import org.apache.log4j.Logger;
 import org.dasein.cloud.AbstractCloud;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.cloudsigma.compute.CloudSigmaComputeServices;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
+import org.dasein.cloud.cloudsigma.compute.image.BootDrivePool;
+import org.dasein.cloud.cloudsigma.compute.vm.ServerChangeQueue;
 import org.dasein.cloud.cloudsigma.network.CloudSigmaNetworkServices;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Support for the CloudSigma cloud using their 2.0 API. This implementation owes almost everything to the work done by
@@ -66,9 +74,128 @@ public class CloudSigma extends AbstractCloud {
         return Logger.getLogger("dasein.cloud.cloudsigma.wire." + getLastItem(cls.getPackage().getName()) + "." + getLastItem(cls.getName()));
     }
 
+    private transient BootDrivePool            bootDrivePool;
+    private transient CircuitBreakers          circuitBreakers;
+    private transient CloudSigmaConnectionPool connectionPool;
+    private transient CloudSigmaExecutor       executor;
+    private transient CloudSigmaMetrics        metrics;
+    private transient InventoryCache           inventoryCache;
+    private transient RateLimiter              rateLimiter;
+    private transient RequestCoalescer         requestCoalescer;
+    private transient RetryInterceptor         retryInterceptor;
+    private transient ServerChangeQueue        serverChangeQueue;
+    private transient StateWatcher             stateWatcher;
+    private boolean                            closed = false;   //set as close() starts; nothing new may begin
+    private boolean                            released = false; //set once the executor has drained and shared resources are shut down
+    private final List<CloudSigmaInterceptor> interceptors = new CopyOnWriteArrayList<CloudSigmaInterceptor>();
+    private final List<OperationListener>     operationListeners = new CopyOnWriteArrayList<OperationListener>();
+
     public CloudSigma() {
     }
 
+    @Override
+    public void close() {
+        try {
+            BootDrivePool drives;
+            CircuitBreakers guards;
+            CloudSigmaConnectionPool pool;
+            CloudSigmaExecutor background;
+            CloudSigmaMetrics endpoints;
+            ServerChangeQueue changes;
+            StateWatcher watcher;
+
+            //closed resources are kept and handed out as they are so nothing is recreated that will never be closed
+            synchronized (this) {
+                closed = true;
+                drives = bootDrivePool;
+                background = executor;
+                changes = serverChangeQueue;
+            }
+            if (changes != null) {
+                changes.close();
+            }
+            if (drives != null) {
+                drives.close();
+            }
+            //let background work finish while the watcher and connections are still available
+            if (background != null) {
+                background.close();
+            }
+            synchronized (this) {
+                released = true;
+                pool = connectionPool;
+                connectionPool = null;
+                watcher = stateWatcher;
+                endpoints = metrics;
+                guards = circuitBreakers;
+                if (inventoryCache != null) {
+                    inventoryCache.clear();
+                }
+            }
+            if (watcher != null) {
+                watcher.close();
+            }
+            if (pool != null) {
+                pool.close();
+            }
+            if (endpoints != null) {
+                endpoints.close();
+            }
+            if (guards != null) {
+                guards.close();
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Adds an interceptor to the end of the chain every request against this provider passes through. Interceptors
+     * registered here run before authentication and wire logging are applied.
+     * @param interceptor the interceptor to add
+     */
+    public void addInterceptor(@Nonnull CloudSigmaInterceptor interceptor) {
+        interceptors.add(interceptor);
+    }
+
+    /**
+     * Removes a previously registered interceptor.
+     * @param interceptor the interceptor to remove
+     */
+    public void removeInterceptor(@Nonnull CloudSigmaInterceptor interceptor) {
+        interceptors.remove(interceptor);
+    }
+
+    /**
+     * @return the interceptors registered with this provider in the order they are applied
+     */
+    public @Nonnull List<CloudSigmaInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(interceptors);
+    }
+
+    /**
+     * Adds a listener to receive the phase timings of long-running operations such as launches and captures.
+     * @param listener the listener to add
+     */
+    public void addOperationListener(@Nonnull OperationListener listener) {
+        operationListeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered operation listener.
+     * @param listener the listener to remove
+     */
+    public void removeOperationListener(@Nonnull OperationListener listener) {
+        operationListeners.remove(listener);
+    }
+
+    /**
+     * @return the operation listeners registered with this provider
+     */
+    public @Nonnull List<OperationListener> getOperationListeners() {
+        return Collections.unmodifiableList(operationListeners);
+    }
+
     @Override
     public @Nonnull String getCloudName() {
         ProviderContext ctx = getContext();
@@ -77,6 +204,223 @@ public class CloudSigma extends AbstractCloud {
         return (name == null ? "CloudSigma2" : name);
     }
 
+    /**
+     * Provides the circuit breakers guarding the endpoints this provider calls, creating them on first use.
+     * @return the circuit breakers for this provider
+     */
+    public synchronized @Nonnull CircuitBreakers getCircuitBreakers() {
+        if (circuitBreakers == null) {
+            circuitBreakers = new CircuitBreakers(this);
+            if (released) {
+                circuitBreakers.close();
+            }
+        }
+        return circuitBreakers;
+    }
+
+    /**
+     * Provides the connection pool shared by all requests against this provider, creating it on first use.
+     * @param uri the target of the request needing a connection
+     * @return the connection pool for this provider
+     * @throws NoContextException no context has been set for this provider
+     * @throws CloudSigmaConfigurationException this provider has been closed
+     */
+    public synchronized @Nonnull CloudSigmaConnectionPool getConnectionPool(@Nonnull URI uri) throws CloudSigmaConfigurationException {
+        ProviderContext ctx = getContext();
+
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+        if (released) {
+            throw new CloudSigmaConfigurationException("This CloudSigma provider has been closed");
+        }
+        if (connectionPool == null) {
+            connectionPool = new CloudSigmaConnectionPool(this, ctx, uri.getScheme().startsWith("https"));
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Provides the executor that runs background work such as post-launch starts for this provider, creating it on
+     * first use.
+     * @return the background executor for this provider
+     */
+    public synchronized @Nonnull CloudSigmaExecutor getExecutor() {
+        if (executor == null) {
+            executor = new CloudSigmaExecutor(this);
+            if (closed) {
+                executor.close();
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Provides the warm pool of pre-cloned boot drives for this provider, creating it on first use. The pool is off
+     * unless a size has been configured for it.
+     * @return the boot drive pool for this provider
+     */
+    public synchronized @Nonnull BootDrivePool getBootDrivePool() {
+        if (bootDrivePool == null) {
+            bootDrivePool = new BootDrivePool(this);
+            if (closed) {
+                bootDrivePool.close();
+            }
+        }
+        return bootDrivePool;
+    }
+
+    /**
+     * Provides the per-endpoint call metrics for this provider, creating them on first use.
+     * @return the call metrics for this provider
+     */
+    public synchronized @Nonnull CloudSigmaMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new CloudSigmaMetrics(this);
+            if (released) {
+                metrics.close();
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Provides the resource cache shared by all requests against this provider, creating it on first use. Caching
+     * is off for every resource type unless a TTL has been configured for it.
+     * @return the inventory cache for this provider
+     */
+    public synchronized @Nonnull InventoryCache getInventoryCache() {
+        if (inventoryCache == null) {
+            inventoryCache = new InventoryCache(this);
+        }
+        return inventoryCache;
+    }
+
+    /**
+     * Provides the limiter that spaces out requests against the account of the current context. The limiter is shared
+     * with every other provider connected to the same endpoint and account.
+     * @return the rate limiter for this provider's account
+     * @throws NoContextException no context has been set for this provider
+     */
+    public synchronized @Nonnull RateLimiter getRateLimiter() throws NoContextException {
+        if (rateLimiter == null) {
+            rateLimiter = RateLimiter.forAccount(this);
+        }
+        return rateLimiter;
+    }
+
+    /**
+     * Provides the coalescer that shares one response among identical concurrent GETs against this provider, creating
+     * it on first use.
+     * @return the request coalescer for this provider
+     */
+    public synchronized @Nonnull RequestCoalescer getRequestCoalescer() {
+        if (requestCoalescer == null) {
+            requestCoalescer = new RequestCoalescer(this);
+        }
+        return requestCoalescer;
+    }
+
+    /**
+     * Provides the interceptor that retries failed requests with backoff for this provider, creating it on first use.
+     * @return the retry interceptor for this provider
+     */
+    public synchronized @Nonnull RetryInterceptor getRetryInterceptor() {
+        if (retryInterceptor == null) {
+            retryInterceptor = new RetryInterceptor(this);
+        }
+        return retryInterceptor;
+    }
+
+    /**
+     * Provides the queue that combines concurrent changes to the same server, creating it on first use.
+     * @return the server change queue for this provider
+     */
+    public synchronized @Nonnull ServerChangeQueue getServerChangeQueue() {
+        if (serverChangeQueue == null) {
+            serverChangeQueue = new ServerChangeQueue(this);
+            if (closed) {
+                serverChangeQueue.close();
+            }
+        }
+        return serverChangeQueue;
+    }
+
+    /**
+     * Provides the watcher that batches all status polling for this provider, creating it on first use.
+     * @return the state watcher for this provider
+     */
+    public synchronized @Nonnull StateWatcher getStateWatcher() {
+        if (stateWatcher == null) {
+            stateWatcher = new StateWatcher(this);
+            if (released) {
+                stateWatcher.close();
+            }
+        }
+        return stateWatcher;
+    }
+
+    /**
+     * Reads a numeric tuning value from the custom properties of the current context.
+     * @param key the name of the custom property
+     * @param defaultValue the value to use when the property is absent or invalid
+     * @return the configured value or the default
+     */
+    public long getLongProperty(@Nonnull String key, long defaultValue) {
+        ProviderContext ctx = getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String value = (p == null ? null : p.getProperty(key));
+
+        if (value == null || value.trim().length() < 1) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for custom property " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a fractional tuning value from the custom properties of the current context.
+     * @param key the name of the custom property
+     * @param defaultValue the value to use when the property is absent or invalid
+     * @return the configured value or the default
+     */
+    public double getDoubleProperty(@Nonnull String key, double defaultValue) {
+        ProviderContext ctx = getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String value = (p == null ? null : p.getProperty(key));
+
+        if (value == null || value.trim().length() < 1) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value for custom property " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads an on/off tuning value from the custom properties of the current context.
+     * @param key the name of the custom property
+     * @param defaultValue the value to use when the property is absent
+     * @return the configured value or the default
+     */
+    public boolean getBooleanProperty(@Nonnull String key, boolean defaultValue) {
+        ProviderContext ctx = getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String value = (p == null ? null : p.getProperty(key));
+
+        if (value == null || value.trim().length() < 1) {
+            return defaultValue;
+        }
+        return value.trim().equalsIgnoreCase("true");
+    }
+
     @Override
     public @Nonnull CloudSigmaComputeServices getComputeServices() {
         return new CloudSigmaComputeServices(this);
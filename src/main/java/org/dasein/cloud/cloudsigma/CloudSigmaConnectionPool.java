@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread-safe pool of persistent HTTP connections to the CloudSigma endpoint shared by every call made through
+ * a single {@link CloudSigma} provider instance. Pool sizes and keep-alive behavior may be tuned through the
+ * custom properties of the provider context.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaConnectionPool {
+    static private final Logger logger = CloudSigma.getLogger(CloudSigmaConnectionPool.class);
+
+    /**
+     * Custom property for the maximum number of connections open across all routes (default 50).
+     */
+    static public final String MAX_CONNECTIONS = "maxConnections";
+
+    /**
+     * Custom property for the maximum number of connections open to a single route (default 20).
+     */
+    static public final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+
+    /**
+     * Custom property for how long in milliseconds to keep a connection alive when the server does not say (default 30000).
+     */
+    static public final String KEEP_ALIVE = "keepAliveMillis";
+
+    /**
+     * Custom property for how long in milliseconds a connection may sit idle before it is closed (default 60000).
+     */
+    static public final String IDLE_TIMEOUT = "idleConnectionTimeoutMillis";
+
+    /**
+     * Custom property for how long in milliseconds to wait for a connection to CloudSigma to open (default 10000).
+     */
+    static public final String CONNECT_TIMEOUT = "connectTimeoutMillis";
+
+    /**
+     * Custom property for how long in milliseconds to wait for data on an open connection before giving up (default 120000).
+     */
+    static public final String SOCKET_TIMEOUT = "socketTimeoutMillis";
+
+    /**
+     * Custom property for how long in milliseconds to wait for a free connection from the pool (default 30000).
+     */
+    static public final String CONNECTION_WAIT = "connectionWaitMillis";
+
+    static private final long REAPER_INTERVAL = 5000L;
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient               client;
+    private volatile boolean                      closed = false;
+
+    public CloudSigmaConnectionPool(@Nonnull CloudSigma provider, @Nonnull ProviderContext ctx, boolean ssl) {
+        Properties p = ctx.getCustomProperties();
+
+        connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal((int) provider.getLongProperty(MAX_CONNECTIONS, 50));
+        connectionManager.setDefaultMaxPerRoute((int) provider.getLongProperty(MAX_CONNECTIONS_PER_ROUTE, 20));
+
+        HttpParams params = new BasicHttpParams();
+
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        //noinspection deprecation
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        HttpProtocolParams.setUserAgent(params, "");
+        //without these a degraded endpoint holds every calling thread for as long as the operating system allows
+        HttpConnectionParams.setConnectionTimeout(params, (int) provider.getLongProperty(CONNECT_TIMEOUT, 10000L));
+        HttpConnectionParams.setSoTimeout(params, (int) provider.getLongProperty(SOCKET_TIMEOUT, 120000L));
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, provider.getLongProperty(CONNECTION_WAIT, 30000L));
+
+        if (p != null) {
+            String proxyHost = p.getProperty("proxyHost");
+            String proxyPort = p.getProperty("proxyPort");
+
+            if (proxyHost != null) {
+                int port = 0;
+
+                if (proxyPort != null && proxyPort.length() > 0) {
+                    port = Integer.parseInt(proxyPort);
+                }
+                params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, port, ssl ? "https" : "http"));
+            }
+        }
+        client = new DefaultHttpClient(connectionManager, params);
+
+        final long keepAlive = provider.getLongProperty(KEEP_ALIVE, 30000L);
+
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final DefaultConnectionKeepAliveStrategy headerStrategy = new DefaultConnectionKeepAliveStrategy();
+
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = headerStrategy.getKeepAliveDuration(response, context);
+
+                return (duration < 0 ? keepAlive : duration);
+            }
+        });
+
+        final long idleTimeout = provider.getLongProperty(IDLE_TIMEOUT, 60000L);
+
+        Thread reaper = new Thread() {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(REAPER_INTERVAL);
+                    } catch (InterruptedException ignore) {
+                    }
+                    if (!closed) {
+                        connectionManager.closeExpiredConnections();
+                        connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        };
+
+        reaper.setName("CloudSigma Idle Connection Reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * @return the shared client; callers must consume or release every response so its connection returns to the pool
+     */
+    public @Nonnull HttpClient getClient() {
+        return client;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            connectionManager.shutdown();
+        } catch (Throwable t) {
+            logger.warn("Error shutting down CloudSigma connection pool: " + t.getMessage());
+        }
+    }
+}
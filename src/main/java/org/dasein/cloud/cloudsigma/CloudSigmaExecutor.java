@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, provider-owned pool for the work CloudSigma operations leave running after they return, such as
+ * starting a server once it has been created or changed. Every task holds the provider open until it finishes or
+ * is cancelled, and closing the provider drains outstanding tasks before giving up on them.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaExecutor {
+    static private final Logger logger = CloudSigma.getLogger(CloudSigmaExecutor.class);
+
+    /**
+     * Custom property for the number of threads running background tasks (default 10).
+     */
+    static public final String THREADS = "backgroundThreads";
+
+    /**
+     * Custom property for the maximum number of tasks waiting to run before new tasks are refused (default 1000).
+     */
+    static public final String MAX_QUEUE = "backgroundQueueLimit";
+
+    /**
+     * Custom property for how long in milliseconds closing the provider waits for background tasks to finish (default 30000).
+     */
+    static public final String DRAIN_TIMEOUT = "backgroundDrainMillis";
+
+    /**
+     * A background task that keeps the provider held until it completes and can be cancelled whether or not it has
+     * started running.
+     * @param <T> the result type of the task
+     */
+    private class Task<T> extends FutureTask<T> {
+        private String                      name;
+        private volatile ScheduledFuture<?> scheduled;
+
+        private Task(@Nonnull String name, @Nonnull Callable<T> callable) {
+            super(callable);
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            Thread t = Thread.currentThread();
+            String threadName = t.getName();
+
+            t.setName(name);
+            try {
+                super.run();
+            } finally {
+                t.setName(threadName);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            ScheduledFuture<?> s = scheduled;
+
+            if (cancelled && s != null && s.cancel(false)) {
+                executor.purge();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            outstanding.remove(this);
+            if (isCancelled()) {
+                cancelledCount.incrementAndGet();
+            } else {
+                completedCount.incrementAndGet();
+            }
+            provider.release();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final AtomicLong                  cancelledCount = new AtomicLong(0L);
+    private final AtomicLong                  completedCount = new AtomicLong(0L);
+    private final ScheduledThreadPoolExecutor executor;
+    private final int                         maxQueue;
+    private final Set<Task<?>>                outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Task<?>, Boolean>());
+    private final CloudSigma                  provider;
+    private final AtomicLong                  rejectedCount = new AtomicLong(0L);
+
+    public CloudSigmaExecutor(@Nonnull CloudSigma provider) {
+        this.provider = provider;
+        this.maxQueue = (int) provider.getLongProperty(MAX_QUEUE, 1000L);
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+
+        executor = new ScheduledThreadPoolExecutor((int) Math.max(1L, provider.getLongProperty(THREADS, 10L)), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+
+                t.setName("CloudSigma Background " + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Runs a task in the background as soon as a thread is free.
+     * @param name a descriptive name for the task, used as the thread name while it runs
+     * @param task the work to do
+     * @return a future for tracking or cancelling the task
+     * @throws CloudException the executor is shut down or its queue is full
+     */
+    public @Nonnull Future<?> submit(@Nonnull String name, @Nonnull Runnable task) throws CloudException {
+        return schedule(name, task, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task in the background once a delay has passed.
+     * @param name a descriptive name for the task, used as the thread name while it runs
+     * @param task the work to do
+     * @param delay how long to wait before running the task
+     * @param unit the unit of the delay
+     * @return a future for tracking or cancelling the task
+     * @throws CloudException the executor is shut down or its queue is full
+     */
+    public @Nonnull Future<?> schedule(@Nonnull String name, @Nonnull Runnable task, long delay, @Nonnull TimeUnit unit) throws CloudException {
+        return schedule(name, Executors.callable(task), delay, unit);
+    }
+
+    /**
+     * Runs a task that produces a result in the background once a delay has passed.
+     * @param name a descriptive name for the task, used as the thread name while it runs
+     * @param callable the work to do
+     * @param delay how long to wait before running the task
+     * @param unit the unit of the delay
+     * @param <T> the type of the result
+     * @return a future for the result of the task
+     * @throws CloudException the executor is shut down or its queue is full
+     */
+    public @Nonnull <T> Future<T> schedule(@Nonnull String name, @Nonnull Callable<T> callable, long delay, @Nonnull TimeUnit unit) throws CloudException {
+        if (executor.isShutdown()) {
+            rejectedCount.incrementAndGet();
+            throw new CloudException("Background tasks are no longer accepted because the provider is closing");
+        }
+        if (executor.getQueue().size() >= maxQueue) {
+            rejectedCount.incrementAndGet();
+            throw new CloudException("Too many CloudSigma background tasks are waiting to run (" + maxQueue + ")");
+        }
+        Task<T> t = new Task<T>(name, callable);
+
+        provider.hold();
+        outstanding.add(t);
+        try {
+            t.scheduled = executor.schedule(t, delay, unit);
+        } catch (RuntimeException e) {
+            rejectedCount.incrementAndGet();
+            t.cancel(false);
+            throw new CloudException("Unable to schedule " + name + ": " + e.getMessage());
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of threads currently running a task
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks waiting to run, including tasks scheduled for later
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks submitted that have neither finished nor been cancelled
+     */
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     * Stops accepting new tasks and waits for outstanding tasks to finish, then cancels anything still left.
+     */
+    public void close() {
+        long drainTimeout = provider.getLongProperty(DRAIN_TIMEOUT, 30000L);
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS)) {
+                logger.warn("Cancelling " + getOutstandingCount() + " CloudSigma background tasks that did not finish within " + drainTimeout + "ms");
+                cancelAll();
+            }
+        } catch (InterruptedException e) {
+            cancelAll();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cancelAll() {
+        executor.shutdownNow();
+        for (Task<?> t : new ArrayList<Task<?>>(outstanding)) {
+            t.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A step in the request pipeline that every call through {@link CloudSigmaMethod} passes through. Interceptors
+ * may inspect or alter the request, short-circuit it with their own response, or call through to the rest of
+ * the chain and look at what comes back. Interceptors are shared across threads and must be thread-safe.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public interface CloudSigmaInterceptor {
+    /**
+     * The remainder of the pipeline following a given interceptor.
+     */
+    public interface Chain {
+        /**
+         * Passes the request on to the next interceptor, or to the wire if there are no more interceptors.
+         * @param request the request to send
+         * @return the raw response from further down the chain
+         * @throws CloudException an error occurred communicating with CloudSigma
+         * @throws InternalException an error occurred within Dasein Cloud
+         */
+        public @Nonnull CloudSigmaResponse proceed(@Nonnull CloudSigmaRequest request) throws CloudException, InternalException;
+    }
+
+    /**
+     * Handles a request on its way to CloudSigma.
+     * @param request the request being executed
+     * @param chain the rest of the pipeline
+     * @return the raw response for the request; status codes are interpreted only after the whole chain completes
+     * @throws CloudException an error occurred communicating with CloudSigma
+     * @throws InternalException an error occurred within Dasein Cloud
+     */
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException;
+}
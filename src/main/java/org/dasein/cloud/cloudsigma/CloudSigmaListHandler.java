@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the elements of the <code>objects</code> array of a CloudSigma list response one at a time as they are
+ * parsed off the wire by {@link CloudSigmaMethod#stream(String, CloudSigmaListHandler)}.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public interface CloudSigmaListHandler {
+    /**
+     * Called once for each object in the listing, in the order CloudSigma returns them.
+     * @param object the JSON for a single listed resource
+     * @throws CloudException an error occurred in CloudSigma while handling the object
+     * @throws InternalException an error occurred within Dasein Cloud while handling the object
+     * @throws JSONException the object did not have the expected structure
+     */
+    public void handle(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException;
+}
@@ -22,22 +22,16 @@ package org.dasein.cloud.cloudsigma;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
-import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
@@ -46,17 +40,22 @@ import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 /**
  * Handles communication with the CloudSigma REST endpoint v. 2.0 by abstracting out the specifics of authentication and
@@ -101,6 +100,31 @@ public class CloudSigmaMethod {
      */
     static public final int NOT_FOUND = 404;
 
+    /**
+     * 429	Too Many Requests	Request rate limit exceeded, nothing was done
+     */
+    static public final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * 502	Bad Gateway	The API front end could not reach the service behind it
+     */
+    static public final int BAD_GATEWAY = 502;
+
+    /**
+     * 503	Service Unavailable	Temporarily unable to handle the request
+     */
+    static public final int SERVICE_UNAVAILABLE = 503;
+
+    /**
+     * 504	Gateway Timeout	The service behind the API front end did not answer in time
+     */
+    static public final int GATEWAY_TIMEOUT = 504;
+
+    /**
+     * Custom property that, when <code>false</code>, makes listings return every field rather than only the fields
+     * the driver reads (default true).
+     */
+    static public final String PROJECTED_LISTINGS = "projectedListings";
 
     static public @Nullable String seekValue(@Nonnull String body, @Nonnull String key) {
         //dmayne 20130218: use JSON parsing rather than plain text
@@ -146,11 +170,23 @@ public class CloudSigmaMethod {
     }
 
     private CloudSigma provider;
+    private boolean    fresh = false;
 
     public CloudSigmaMethod(@Nonnull CloudSigma provider) {
         this.provider = provider;
     }
 
+    /**
+     * Makes reads through this method go to CloudSigma instead of being answered from the inventory cache or joined to
+     * an identical request already in flight. A read whose result is modified and PUT back must be fresh, otherwise a
+     * stale copy silently undoes whatever changed since it was fetched.
+     * @return this method
+     */
+    public @Nonnull CloudSigmaMethod fresh() {
+        fresh = true;
+        return this;
+    }
+
     public @Nullable Map<String, String> getObject(@Nonnull String resource) throws InternalException, CloudException {
         String body = getString(resource);
 
@@ -161,175 +197,35 @@ public class CloudSigmaMethod {
     }
 
     public @Nullable String getString(@Nonnull String resource) throws InternalException, CloudException {
-        if (logger.isTraceEnabled()) {
-            logger.trace("ENTER - " + CloudSigma.class.getName() + ".getString(" + resource + ")");
-        }
-
-        try {
-            String target = getEndpoint(resource);
-
-            if (wire.isDebugEnabled()) {
-                wire.debug("");
-                wire.debug(">>> [GET (" + (new Date()) + ")] -> " + target + " >--------------------------------------------------------------------------------------");
-            }
-            try {
-                URI uri;
-
-                try {
-                    uri = new URI(target);
-                } catch (URISyntaxException e) {
-                    throw new CloudSigmaConfigurationException(e);
-                }
-                HttpClient client = getClient(uri);
-
-                try {
-                    ProviderContext ctx = provider.getContext();
-
-                    if (ctx == null) {
-                        throw new NoContextException();
-                    }
-                    HttpGet get = new HttpGet(target);
-                    String auth;
-
-                    try {
-                        String userName = new String(ctx.getAccessPublic(), "utf-8");
-                        String password = new String(ctx.getAccessPrivate(), "utf-8");
-
-                        auth = new String(Base64.encodeBase64((userName + ":" + password).getBytes()));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new InternalException(e);
-                    }
-                    //dmayne 20130218: add JSON headers
-                    get.addHeader("Host", uri.getHost());
-                    get.addHeader("Content-Type", "application/json; charset=utf-8");
-                    get.addHeader("Accept", "application/json");
-                    get.addHeader("Authorization", "Basic " + auth);
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(get.getRequestLine().toString());
-                        for (Header header : get.getAllHeaders()) {
-                            wire.debug(header.getName() + ": " + header.getValue());
-                        }
-                        wire.debug("");
-                    }
-                    HttpResponse response;
-                    StatusLine status;
-
-                    try {
-                        response = client.execute(get);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("HTTP Status " + status);
-                    }
-                    Header[] headers = response.getAllHeaders();
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(status.toString());
-                        for (Header h : headers) {
-                            if (h.getValue() != null) {
-                                wire.debug(h.getName() + ": " + h.getValue().trim());
-                            } else {
-                                wire.debug(h.getName() + ":");
-                            }
-                        }
-                        wire.debug("");
-                    }
-                    if (status.getStatusCode() == NOT_FOUND) {
-                        return null;
-                    }
-                    if (status.getStatusCode() != OK && status.getStatusCode() != NO_CONTENT) {
-                        logger.error("Expected OK for GET request, got " + status.getStatusCode());
-                        HttpEntity entity = response.getEntity();
-                        String body;
-
-                        if (entity == null) {
-                            throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        if (status.getStatusCode() == BAD_REQUEST && body.contains("could not be found")) {
-                            return null;
-                        }
-                        throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), body);
-                    } else {
-                        HttpEntity entity = response.getEntity();
+        return execute(CloudSigmaRequest.GET, resource, null, null);
+    }
 
-                        if (entity == null) {
-                            return "";
-                        }
-                        String body;
+    /**
+     * Restricts a listing to the specified top-level fields so CloudSigma neither renders nor sends the rest of each
+     * object. Detail listings otherwise carry everything, including runtime statistics and licences nobody reads.
+     * @param resource the listing to restrict, with or without a query string
+     * @param fields the fields each object in the listing should carry
+     * @return the restricted listing, or the listing unchanged if it already names its fields, no fields were given,
+     * or projection has been turned off with {@link #PROJECTED_LISTINGS}
+     */
+    public @Nonnull String withFields(@Nonnull String resource, @Nonnull String ... fields) {
+        if (fields.length < 1 || resource.contains("fields=") || !provider.getBooleanProperty(PROJECTED_LISTINGS, true)) {
+            return resource;
+        }
+        StringBuilder str = new StringBuilder(resource);
 
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        return body;
-                    }
-                } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
-                    }
-                }
-            } finally {
-                if (wire.isDebugEnabled()) {
-                    wire.debug("<<< [GET (" + (new Date()) + ")] -> " + target + " <--------------------------------------------------------------------------------------");
-                    wire.debug("");
-                }
-            }
-        } finally {
-            if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + CloudSigma.class.getName() + ".getString()");
+        str.append(resource.contains("?") ? "&" : "?").append("fields=");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                str.append(",");
             }
+            str.append(fields[i]);
         }
+        return str.toString();
     }
 
     private @Nonnull HttpClient getClient(URI uri) throws InternalException, CloudException {
-        ProviderContext ctx = provider.getContext();
-
-        if (ctx == null) {
-            throw new NoContextException();
-        }
-        boolean ssl = uri.getScheme().startsWith("https");
-        HttpParams params = new BasicHttpParams();
-
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        //noinspection deprecation
-        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-        HttpProtocolParams.setUserAgent(params, "");
-
-        Properties p = ctx.getCustomProperties();
-
-        if (p != null) {
-            String proxyHost = p.getProperty("proxyHost");
-            String proxyPort = p.getProperty("proxyPort");
-
-            if (proxyHost != null) {
-                int port = 0;
-
-                if (proxyPort != null && proxyPort.length() > 0) {
-                    port = Integer.parseInt(proxyPort);
-                }
-                params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, port, ssl ? "https" : "http"));
-            }
-        }
-        return new DefaultHttpClient(params);
+        return provider.getConnectionPool(uri).getClient();
     }
 
     private @Nonnull String getEndpoint(@Nonnull String resource) throws NoContextException {
@@ -381,6 +277,19 @@ public class CloudSigmaMethod {
         return null;
     }
 
+    /**
+     * Lists a resource without holding the whole response in memory. Each element of the <code>objects</code> array
+     * is parsed and handed to the handler as it arrives from CloudSigma.
+     * @param resource the list resource, e.g. <code>/drives/detail/?limit=0</code>
+     * @param handler the handler to receive each listed object
+     * @return false if the list resource does not exist, true otherwise
+     * @throws InternalException an error occurred within Dasein Cloud or the response could not be parsed
+     * @throws CloudException CloudSigma rejected the request or could not be reached
+     */
+    public boolean stream(@Nonnull String resource, @Nonnull CloudSigmaListHandler handler) throws InternalException, CloudException {
+        return (execute(CloudSigmaRequest.GET, resource, null, handler) != null);
+    }
+
     public @Nullable Map<String, String> postObject(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
         String response = postString(resource, body);
 
@@ -391,422 +300,357 @@ public class CloudSigmaMethod {
     }
 
     public @Nullable String postString(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
+        return execute(CloudSigmaRequest.POST, resource, body, null);
+    }
+
+    public @Nullable String putString(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
+        return execute(CloudSigmaRequest.PUT, resource, body, null);
+    }
+
+    public @Nullable String deleteString(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
+        //CloudSigma ignores any body on a DELETE, so none is sent
+        return execute(CloudSigmaRequest.DELETE, resource, null, null);
+    }
+
+    /**
+     * Sends a request through the provider's interceptor chain and interprets the resulting status code.
+     * @param method the HTTP verb
+     * @param resource the resource path relative to the API endpoint
+     * @param body the JSON body to send, if any
+     * @param listHandler a handler to stream the elements of a successful list response to, if any
+     * @return the response body, an empty string if CloudSigma sent no content or it was streamed to the handler,
+     * or null if the resource does not exist
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException CloudSigma rejected the request or could not be reached
+     */
+    private @Nullable String execute(@Nonnull String method, @Nonnull String resource, @Nullable String body, @Nullable CloudSigmaListHandler listHandler) throws InternalException, CloudException {
         if (logger.isTraceEnabled()) {
-            logger.trace("ENTER - " + CloudSigma.class.getName() + ".postString(" + resource + "," + body + ")");
+            logger.trace("ENTER - " + CloudSigma.class.getName() + ".execute(" + method + "," + resource + ")");
         }
-
         try {
             String target = getEndpoint(resource);
+            URI uri;
 
-            if (wire.isDebugEnabled()) {
-                wire.debug("");
-                wire.debug(">>> [POST (" + (new Date()) + ")] -> " + target + " >--------------------------------------------------------------------------------------");
-            }
             try {
-                URI uri;
-
-                try {
-                    uri = new URI(target);
-                } catch (URISyntaxException e) {
-                    throw new CloudSigmaConfigurationException(e);
-                }
-                HttpClient client = getClient(uri);
-
-                try {
-                    ProviderContext ctx = provider.getContext();
-
-                    if (ctx == null) {
-                        throw new NoContextException();
-                    }
-                    HttpPost post = new HttpPost(target);
-                    String auth;
-
-                    try {
-                        String userName = new String(ctx.getAccessPublic(), "utf-8");
-                        String password = new String(ctx.getAccessPrivate(), "utf-8");
-
-                        auth = new String(Base64.encodeBase64((userName + ":" + password).getBytes()));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new InternalException(e);
-                    }
-                    //dmayne 20130218: add new JSON headers
-                    post.addHeader("Host", uri.getHost());
-                    post.addHeader("Content-Type", "application/json; charset=utf-8");
-                    post.addHeader("Accept", "application/json");
-                    post.addHeader("Authorization", "Basic " + auth);
-                    try {
-                        post.setEntity(new StringEntity(body, "utf-8"));
-                    } catch (UnsupportedEncodingException e) {
-                        logger.error("Unsupported encoding UTF-8: " + e.getMessage());
-                        throw new InternalException(e);
-                    }
+                uri = new URI(target);
+            } catch (URISyntaxException e) {
+                throw new CloudSigmaConfigurationException(e);
+            }
+            CloudSigmaRequest request = new CloudSigmaRequest(method, resource, uri, body);
 
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(post.getRequestLine().toString());
-                        for (Header header : post.getAllHeaders()) {
-                            wire.debug(header.getName() + ": " + header.getValue());
-                        }
-                        wire.debug("");
-                        wire.debug(body);
-                        wire.debug("");
-                    }
-                    HttpResponse response;
-                    StatusLine status;
+            request.setListHandler(listHandler);
+            request.setFresh(fresh);
+            CloudSigmaResponse response = newChain().proceed(request);
+            int code = response.getStatusCode();
 
-                    try {
-                        response = client.execute(post);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("HTTP Status " + status);
-                    }
-                    Header[] headers = response.getAllHeaders();
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(status.toString());
-                        for (Header h : headers) {
-                            if (h.getValue() != null) {
-                                wire.debug(h.getName() + ": " + h.getValue().trim());
-                            } else {
-                                wire.debug(h.getName() + ":");
-                            }
-                        }
-                        wire.debug("");
-                    }
-                    if (status.getStatusCode() == NOT_FOUND) {
-                        return null;
-                    }
-                    //dmayne 20130227: creating server returns accepted (202) response
-                    if (status.getStatusCode() != OK && status.getStatusCode() != NO_CONTENT && status.getStatusCode() != CREATED && status.getStatusCode() != ACCEPTED) {
-                        logger.error("Expected OK for POST request, got " + status.getStatusCode());
-                        HttpEntity entity = response.getEntity();
+            if (code == NOT_FOUND) {
+                return null;
+            }
+            boolean ok = (code == OK || code == NO_CONTENT);
 
-                        if (entity == null) {
-                            throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), body);
-                    } else {
-                        HttpEntity entity = response.getEntity();
+            //dmayne 20130227: creating server returns accepted (202) response
+            if (!ok && (method.equals(CloudSigmaRequest.POST) || method.equals(CloudSigmaRequest.PUT))) {
+                ok = (code == CREATED || code == ACCEPTED);
+            }
+            String responseBody = response.getBody();
 
-                        if (entity == null) {
-                            return "";
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        return body;
-                    }
-                } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
-                    }
+            if (!ok) {
+                logger.error("Expected OK for " + method + " request, got " + code);
+                if (responseBody == null) {
+                    throw new CloudSigmaException(CloudErrorType.GENERAL, code, response.getReasonPhrase(), response.getReasonPhrase());
                 }
-            } finally {
-                if (wire.isDebugEnabled()) {
-                    wire.debug("<<< [POST (" + (new Date()) + ")] -> " + target + " <--------------------------------------------------------------------------------------");
-                    wire.debug("");
+                if (code == BAD_REQUEST && method.equals(CloudSigmaRequest.GET) && responseBody.contains("could not be found")) {
+                    return null;
                 }
+                throw new CloudSigmaException(CloudErrorType.GENERAL, code, response.getReasonPhrase(), responseBody);
             }
+            return (responseBody == null ? "" : responseBody);
         } finally {
             if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + CloudSigma.class.getName() + ".postString()");
+                logger.trace("EXIT - " + CloudSigma.class.getName() + ".execute()");
             }
         }
     }
 
-    public @Nullable String putString(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
-        if (logger.isTraceEnabled()) {
-            logger.trace("ENTER - " + CloudSigma.class.getName() + ".putString(" + resource + "," + body + ")");
-        }
+    /**
+     * Walks a list response straight off the entity stream, materializing only one element of the
+     * <code>objects</code> array at a time. Any other top-level values such as <code>meta</code> are skipped.
+     * @param entity the entity holding the list response
+     * @param handler the handler to receive each listed object
+     * @throws InternalException the response was not valid JSON or the handler failed
+     * @throws CloudException an I/O error occurred reading the response or the handler failed
+     */
+    private void parseList(@Nonnull HttpEntity entity, @Nonnull CloudSigmaListHandler handler) throws InternalException, CloudException {
+        //noinspection deprecation
+        String charset = EntityUtils.getContentCharSet(entity);
+        Reader reader = null;
 
         try {
-            String target = getEndpoint(resource);
+            reader = new BufferedReader(new InputStreamReader(entity.getContent(), charset == null ? "utf-8" : charset));
 
-            if (wire.isDebugEnabled()) {
-                wire.debug("");
-                wire.debug(">>> [PUT (" + (new Date()) + ")] -> " + target + " >--------------------------------------------------------------------------------------");
+            JSONTokener tokener = new JSONTokener(reader);
+
+            if (tokener.nextClean() != '{') {
+                throw tokener.syntaxError("A list response must begin with '{'");
             }
-            try {
-                URI uri;
+            if (tokener.nextClean() == '}') {
+                return;
+            }
+            tokener.back();
+            while (true) {
+                String key = tokener.nextValue().toString();
 
-                try {
-                    uri = new URI(target);
-                } catch (URISyntaxException e) {
-                    throw new CloudSigmaConfigurationException(e);
+                if (tokener.nextClean() != ':') {
+                    throw tokener.syntaxError("Expected a ':' after a key");
+                }
+                if (key.equals("objects") && tokener.nextClean() == '[') {
+                    if (tokener.nextClean() != ']') {
+                        tokener.back();
+                        while (true) {
+                            Object value = tokener.nextValue();
+
+                            if (value instanceof JSONObject) {
+                                handler.handle((JSONObject) value);
+                            }
+                            char c = tokener.nextClean();
+
+                            if (c == ']') {
+                                break;
+                            } else if (c != ',') {
+                                throw tokener.syntaxError("Expected a ',' or ']'");
+                            }
+                        }
+                    }
+                } else {
+                    if (key.equals("objects")) {
+                        tokener.back();
+                    }
+                    tokener.nextValue();
                 }
-                HttpClient client = getClient(uri);
+                char c = tokener.nextClean();
 
+                if (c == '}') {
+                    return;
+                } else if (c != ',') {
+                    throw tokener.syntaxError("Expected a ',' or '}'");
+                }
+            }
+        } catch (JSONException e) {
+            throw new InternalException(e);
+        } catch (IOException e) {
+            throw new CloudSigmaException(e);
+        } finally {
+            if (reader != null) {
                 try {
-                    ProviderContext ctx = provider.getContext();
+                    reader.close();
+                } catch (IOException ignore) {
+                    // the connection will be discarded rather than reused
+                }
+            }
+        }
+    }
 
-                    if (ctx == null) {
-                        throw new NoContextException();
-                    }
-                    HttpPut put = new HttpPut(target);
-                    String auth;
+    private @Nonnull CloudSigmaInterceptor.Chain newChain() throws NoContextException {
+        List<CloudSigmaInterceptor> chain = new ArrayList<CloudSigmaInterceptor>(provider.getInterceptors());
+        InventoryCache cache = provider.getInventoryCache();
+        RequestCoalescer coalescer = provider.getRequestCoalescer();
+        RetryInterceptor retry = provider.getRetryInterceptor();
+        CircuitBreakers breakers = provider.getCircuitBreakers();
 
-                    try {
-                        String userName = new String(ctx.getAccessPublic(), "utf-8");
-                        String password = new String(ctx.getAccessPrivate(), "utf-8");
+        if (cache.isEnabled()) {
+            chain.add(cache);
+        }
+        if (coalescer.isEnabled()) {
+            chain.add(coalescer);
+        }
+        //retries sit below the coalescer so callers sharing a request share its final outcome, and above the
+        //limiter so every attempt waits its turn
+        if (retry.isEnabled()) {
+            chain.add(retry);
+        }
+        chain.add(provider.getRateLimiter());
+        //the breaker sits below the limiter so time spent waiting for a token is not taken for a slow endpoint
+        if (breakers.isEnabled()) {
+            chain.add(breakers);
+        }
+        chain.add(new AuthInterceptor(provider));
+        chain.add(new WireLoggingInterceptor());
+        chain.add(provider.getMetrics());
+        return new InterceptorChain(chain, 0);
+    }
 
-                        auth = new String(Base64.encodeBase64((userName + ":" + password).getBytes()));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new InternalException(e);
-                    }
-                    //dmayne 20130218: add new JSON headers
-                    put.addHeader("Host", uri.getHost());
-                    put.addHeader("Content-Type", "application/json; charset=utf-8");
-                    put.addHeader("Accept", "application/json");
-                    put.addHeader("Authorization", "Basic " + auth);
-                    try {
-                        put.setEntity(new StringEntity(body, "utf-8"));
-                    } catch (UnsupportedEncodingException e) {
-                        logger.error("Unsupported encoding UTF-8: " + e.getMessage());
-                        throw new InternalException(e);
-                    }
+    /**
+     * Puts the request on the wire using the provider's pooled client. This is always the last link in the chain.
+     * @param request the fully prepared request
+     * @return the raw response
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws CloudException an I/O error occurred talking to CloudSigma
+     */
+    private @Nonnull CloudSigmaResponse transmit(@Nonnull CloudSigmaRequest request) throws InternalException, CloudException {
+        HttpClient client = getClient(request.getUri());
+        HttpRequestBase httpMethod;
+        String method = request.getMethod();
+
+        if (method.equals(CloudSigmaRequest.GET)) {
+            httpMethod = new HttpGet(request.getUri());
+        } else if (method.equals(CloudSigmaRequest.DELETE)) {
+            httpMethod = new HttpDelete(request.getUri());
+        } else if (method.equals(CloudSigmaRequest.POST)) {
+            HttpPost post = new HttpPost(request.getUri());
+
+            if (request.getBody() != null) {
+                post.setEntity(new StringEntity(request.getBody(), ContentType.APPLICATION_JSON));
+            }
+            httpMethod = post;
+        } else if (method.equals(CloudSigmaRequest.PUT)) {
+            HttpPut put = new HttpPut(request.getUri());
 
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(put.getRequestLine().toString());
-                        for (Header header : put.getAllHeaders()) {
-                            wire.debug(header.getName() + ": " + header.getValue());
-                        }
-                        wire.debug("");
-                        wire.debug(body);
-                        wire.debug("");
-                    }
-                    HttpResponse response;
-                    StatusLine status;
+            if (request.getBody() != null) {
+                put.setEntity(new StringEntity(request.getBody(), ContentType.APPLICATION_JSON));
+            }
+            httpMethod = put;
+        } else {
+            throw new InternalException("Unsupported HTTP method: " + method);
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            httpMethod.addHeader(header.getKey(), header.getValue());
+        }
+        try {
+            HttpResponse response;
+            StatusLine status;
 
-                    try {
-                        response = client.execute(put);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("HTTP Status " + status);
-                    }
-                    Header[] headers = response.getAllHeaders();
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(status.toString());
-                        for (Header h : headers) {
-                            if (h.getValue() != null) {
-                                wire.debug(h.getName() + ": " + h.getValue().trim());
-                            } else {
-                                wire.debug(h.getName() + ":");
-                            }
-                        }
-                        wire.debug("");
-                    }
-                    if (status.getStatusCode() == NOT_FOUND) {
-                        return null;
-                    }
-                    if (status.getStatusCode() != OK && status.getStatusCode() != NO_CONTENT && status.getStatusCode() != CREATED && status.getStatusCode() != ACCEPTED) {
-                        logger.error("Expected OK for PUT request, got " + status.getStatusCode());
-                        HttpEntity entity = response.getEntity();
+            try {
+                response = client.execute(httpMethod);
+                status = response.getStatusLine();
+            } catch (IOException e) {
+                logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
+                throw new CloudException(e);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("HTTP Status " + status);
+            }
+            HttpEntity entity = response.getEntity();
+            String body = null;
 
-                        if (entity == null) {
-                            throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), body);
-                    } else {
-                        HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                CloudSigmaListHandler handler = request.getListHandler();
 
-                        if (entity == null) {
-                            return "";
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        return body;
-                    }
-                } finally {
+                if (handler != null && status.getStatusCode() == OK) {
+                    parseList(entity, handler);
+                } else {
                     try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
+                        body = EntityUtils.toString(entity);
+                    } catch (IOException e) {
+                        throw new CloudSigmaException(e);
                     }
                 }
-            } finally {
-                if (wire.isDebugEnabled()) {
-                    wire.debug("<<< [PUT (" + (new Date()) + ")] -> " + target + " <--------------------------------------------------------------------------------------");
-                    wire.debug("");
-                }
             }
+            return new CloudSigmaResponse(status.getStatusCode(), status.getReasonPhrase(), response.getAllHeaders(), body);
         } finally {
-            if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + CloudSigma.class.getName() + ".putString()");
-            }
+            httpMethod.releaseConnection();
         }
     }
 
-    public @Nullable String deleteString(@Nonnull String resource, @Nonnull String body) throws InternalException, CloudException {
-        if (logger.isTraceEnabled()) {
-            logger.trace("ENTER - " + CloudSigma.class.getName() + ".deleteString(" + resource + "," + body + ")");
-        }
+    private class InterceptorChain implements CloudSigmaInterceptor.Chain {
+        private List<CloudSigmaInterceptor> interceptors;
+        private int                         index;
 
-        try {
-            String target = getEndpoint(resource);
+        private InterceptorChain(@Nonnull List<CloudSigmaInterceptor> interceptors, int index) {
+            this.interceptors = interceptors;
+            this.index = index;
+        }
 
-            if (wire.isDebugEnabled()) {
-                wire.debug("");
-                wire.debug(">>> [DELETE (" + (new Date()) + ")] -> " + target + " >--------------------------------------------------------------------------------------");
+        @Override
+        public @Nonnull CloudSigmaResponse proceed(@Nonnull CloudSigmaRequest request) throws CloudException, InternalException {
+            if (index >= interceptors.size()) {
+                return transmit(request);
             }
-            try {
-                URI uri;
+            return interceptors.get(index).intercept(request, new InterceptorChain(interceptors, index + 1));
+        }
+    }
 
-                try {
-                    uri = new URI(target);
-                } catch (URISyntaxException e) {
-                    throw new CloudSigmaConfigurationException(e);
-                }
-                HttpClient client = getClient(uri);
+    /**
+     * Adds the JSON and basic authentication headers CloudSigma expects on every request.
+     */
+    static private class AuthInterceptor implements CloudSigmaInterceptor {
+        private CloudSigma provider;
 
-                try {
-                    ProviderContext ctx = provider.getContext();
+        private AuthInterceptor(@Nonnull CloudSigma provider) {
+            this.provider = provider;
+        }
 
-                    if (ctx == null) {
-                        throw new NoContextException();
-                    }
-                    HttpDelete delete = new HttpDelete(target);
-                    String auth;
+        @Override
+        public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+            ProviderContext ctx = provider.getContext();
 
-                    try {
-                        String userName = new String(ctx.getAccessPublic(), "utf-8");
-                        String password = new String(ctx.getAccessPrivate(), "utf-8");
+            if (ctx == null) {
+                throw new NoContextException();
+            }
+            String auth;
 
-                        auth = new String(Base64.encodeBase64((userName + ":" + password).getBytes()));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new InternalException(e);
-                    }
-                    //dmayne 20130218: add new JSON headers
-                    delete.addHeader("Host", uri.getHost());
-                    delete.addHeader("Content-Type", "application/json; charset=utf-8");
-                    delete.addHeader("Accept", "application/json");
-                    delete.addHeader("Authorization", "Basic " + auth);
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(delete.getRequestLine().toString());
-                        for (Header header : delete.getAllHeaders()) {
-                            wire.debug(header.getName() + ": " + header.getValue());
-                        }
-                        wire.debug("");
-                        wire.debug(body);
-                        wire.debug("");
-                    }
-                    HttpResponse response;
-                    StatusLine status;
+            try {
+                String userName = new String(ctx.getAccessPublic(), "utf-8");
+                String password = new String(ctx.getAccessPrivate(), "utf-8");
 
-                    try {
-                        response = client.execute(delete);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("HTTP Status " + status);
-                    }
-                    Header[] headers = response.getAllHeaders();
-
-                    if (wire.isDebugEnabled()) {
-                        wire.debug(status.toString());
-                        for (Header h : headers) {
-                            if (h.getValue() != null) {
-                                wire.debug(h.getName() + ": " + h.getValue().trim());
-                            } else {
-                                wire.debug(h.getName() + ":");
-                            }
-                        }
-                        wire.debug("");
-                    }
-                    if (status.getStatusCode() == NOT_FOUND) {
-                        return null;
-                    }
-                    if (status.getStatusCode() != OK && status.getStatusCode() != NO_CONTENT) {
-                        logger.error("Expected OK for DELETE request, got " + status.getStatusCode());
-                        HttpEntity entity = response.getEntity();
+                auth = new String(Base64.encodeBase64((userName + ":" + password).getBytes()));
+            } catch (UnsupportedEncodingException e) {
+                throw new InternalException(e);
+            }
+            //dmayne 20130218: add JSON headers
+            request.setHeader("Host", request.getUri().getHost());
+            request.setHeader("Content-Type", "application/json; charset=utf-8");
+            request.setHeader("Accept", "application/json");
+            request.setHeader("Authorization", "Basic " + auth);
+            return chain.proceed(request);
+        }
+    }
 
-                        if (entity == null) {
-                            throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        throw new CloudSigmaException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), body);
-                    } else {
-                        HttpEntity entity = response.getEntity();
+    /**
+     * Dumps the full request and response to the wire logger when it is enabled.
+     */
+    static private class WireLoggingInterceptor implements CloudSigmaInterceptor {
+        @Override
+        public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+            if (!wire.isDebugEnabled()) {
+                return chain.proceed(request);
+            }
+            String method = request.getMethod();
 
-                        if (entity == null) {
-                            return "";
-                        }
-                        try {
-                            body = EntityUtils.toString(entity);
-                        } catch (IOException e) {
-                            throw new CloudSigmaException(e);
-                        }
-                        if (wire.isDebugEnabled()) {
-                            wire.debug(body);
-                        }
-                        wire.debug("");
-                        return body;
+            wire.debug("");
+            wire.debug(">>> [" + method + " (" + (new Date()) + ")] -> " + request.getUri() + " >--------------------------------------------------------------------------------------");
+            try {
+                wire.debug(method + " " + request.getUri() + " HTTP/1.1");
+                for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                    if (header.getKey().equals("Authorization")) {
+                        wire.debug(header.getKey() + ": Basic ********");
+                    } else {
+                        wire.debug(header.getKey() + ": " + header.getValue());
                     }
-                } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
+                }
+                wire.debug("");
+                if (request.getBody() != null) {
+                    wire.debug(request.getBody());
+                    wire.debug("");
+                }
+                CloudSigmaResponse response = chain.proceed(request);
+
+                wire.debug(response.getStatusCode() + " " + response.getReasonPhrase());
+                for (Header h : response.getHeaders()) {
+                    if (h.getValue() != null) {
+                        wire.debug(h.getName() + ": " + h.getValue().trim());
+                    } else {
+                        wire.debug(h.getName() + ":");
                     }
                 }
-            } finally {
-                if (wire.isDebugEnabled()) {
-                    wire.debug("<<< [DELETE (" + (new Date()) + ")] -> " + target + " <--------------------------------------------------------------------------------------");
+                wire.debug("");
+                if (response.getBody() != null) {
+                    wire.debug(response.getBody());
                     wire.debug("");
                 }
-            }
-        } finally {
-            if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + CloudSigma.class.getName() + ".deleteString()");
+                return response;
+            } finally {
+                wire.debug("<<< [" + method + " (" + (new Date()) + ")] -> " + request.getUri() + " <--------------------------------------------------------------------------------------");
+                wire.debug("");
             }
         }
     }
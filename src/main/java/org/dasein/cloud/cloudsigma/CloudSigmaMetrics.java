@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Records the count, error count, bytes transferred and latency of every call that goes over the wire, per HTTP verb
+ * and normalized resource path. The metrics are available as snapshots through {@link #getSnapshots()} and, unless
+ * turned off, as one JMX MBean per endpoint.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaMetrics implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(CloudSigmaMetrics.class);
+
+    /**
+     * Custom property that, when <code>false</code>, stops endpoint metrics being published over JMX (default true).
+     */
+    static public final String JMX_ENABLED = "metricsJmxEnabled";
+
+    /**
+     * The JMX domain endpoint MBeans are registered under.
+     */
+    static public final String JMX_DOMAIN = "org.dasein.cloud.cloudsigma";
+
+    static private final Pattern UUID = Pattern.compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+    static private final Pattern IP   = Pattern.compile("^[0-9]{1,3}(\\.[0-9]{1,3}){3}$");
+    static private final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Reduces a resource to a path shared by every call against the same endpoint by dropping the query string and
+     * replacing IDs with placeholders, so starting any server is recorded against <code>/servers/{uuid}/action/</code>.
+     * @param resource the resource as requested
+     * @return the normalized path
+     */
+    static public @Nonnull String normalize(@Nonnull String resource) {
+        int idx = resource.indexOf('?');
+        String path = (idx < 0 ? resource : resource.substring(0, idx));
+        StringBuilder normalized = new StringBuilder("/");
+
+        for (String part : path.split("/")) {
+            if (part.length() < 1) {
+                continue;
+            }
+            if (UUID.matcher(part).matches()) {
+                part = "{uuid}";
+            }
+            else if (IP.matcher(part).matches()) {
+                part = "{ip}";
+            }
+            normalized.append(part).append("/");
+        }
+        return normalized.toString();
+    }
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+    private final List<ObjectName>                       registered = new ArrayList<ObjectName>();
+    private final boolean                                jmx;
+    private final String                                 instance;
+    private volatile boolean                             closed = false;
+
+    public CloudSigmaMetrics(@Nonnull CloudSigma provider) {
+        ProviderContext ctx = provider.getContext();
+        String account = (ctx == null ? null : ctx.getAccountNumber());
+
+        this.jmx = provider.getBooleanProperty(JMX_ENABLED, true);
+        this.instance = (account == null ? "" : account + "-") + Integer.toHexString(System.identityHashCode(provider));
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        EndpointMetrics metrics = getEndpoint(request.getMethod(), normalize(request.getResource()));
+        String body = request.getBody();
+        long sent = (body == null ? 0L : body.getBytes(UTF8).length);
+        long start = System.nanoTime();
+        boolean error = true;
+        long received = 0L;
+
+        OperationTrace.recordCall();
+        try {
+            CloudSigmaResponse response = chain.proceed(request);
+            int code = response.getStatusCode();
+
+            error = (code >= 400 && code != 404);
+            received = getLength(response);
+            return response;
+        } finally {
+            metrics.record((System.nanoTime() - start) / 1000L, error, sent, received);
+        }
+    }
+
+    /**
+     * @return a copy of the current metrics for every endpoint called so far
+     */
+    public @Nonnull List<EndpointSnapshot> getSnapshots() {
+        ArrayList<EndpointSnapshot> snapshots = new ArrayList<EndpointSnapshot>();
+
+        for (EndpointMetrics metrics : endpoints.values()) {
+            snapshots.add(metrics.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Clears the metrics for every endpoint.
+     */
+    public void reset() {
+        for (EndpointMetrics metrics : endpoints.values()) {
+            metrics.reset();
+        }
+    }
+
+    /**
+     * Removes every MBean this instance published.
+     */
+    public void close() {
+        List<ObjectName> names;
+
+        synchronized (registered) {
+            closed = true;
+            names = new ArrayList<ObjectName>(registered);
+            registered.clear();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (ObjectName name : names) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                logger.debug("Unable to unregister " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private @Nonnull EndpointMetrics getEndpoint(@Nonnull String verb, @Nonnull String path) {
+        String key = verb + " " + path;
+        EndpointMetrics metrics = endpoints.get(key);
+
+        if (metrics == null) {
+            EndpointMetrics created = new EndpointMetrics(verb, path);
+
+            metrics = endpoints.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+                if (jmx) {
+                    register(created);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private void register(@Nonnull EndpointMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Endpoint,provider=" + ObjectName.quote(instance) + ",verb=" + metrics.getVerb() + ",path=" + ObjectName.quote(metrics.getPath()));
+
+            synchronized (registered) {
+                if (closed) {
+                    return;
+                }
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metrics, EndpointMetricsMBean.class), name);
+                registered.add(name);
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to publish metrics for " + metrics.getVerb() + " " + metrics.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private long getLength(@Nonnull CloudSigmaResponse response) {
+        String body = response.getBody();
+
+        if (body != null) {
+            return body.getBytes(UTF8).length;
+        }
+        String length = response.getHeader("Content-Length");
+
+        if (length != null) {
+            try {
+                return Long.parseLong(length.trim());
+            } catch (NumberFormatException ignore) {
+                // ignore
+            }
+        }
+        return 0L;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An unchecked error raised while iterating a {@link PagedListing} when a page after the first could not be fetched
+ * or converted. Iterators cannot throw checked exceptions, so the original {@link org.dasein.cloud.CloudException},
+ * {@link org.dasein.cloud.InternalException} or {@link org.json.JSONException} is carried as the cause.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaPagingException extends RuntimeException {
+    public CloudSigmaPagingException(@Nonnull String message, @Nonnull Throwable cause) {
+        super(message, cause);
+    }
+}
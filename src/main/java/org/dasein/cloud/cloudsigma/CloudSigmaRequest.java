@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single call against the CloudSigma REST API as it moves through the {@link CloudSigmaInterceptor} chain.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaRequest {
+    static public final String GET    = "GET";
+    static public final String POST   = "POST";
+    static public final String PUT    = "PUT";
+    static public final String DELETE = "DELETE";
+
+    private String                body;
+    private boolean               fresh = false;
+    private CloudSigmaListHandler listHandler;
+    private Map<String, String>   headers = new LinkedHashMap<String, String>();
+    private String                method;
+    private String                resource;
+    private URI                   uri;
+
+    public CloudSigmaRequest(@Nonnull String method, @Nonnull String resource, @Nonnull URI uri, @Nullable String body) {
+        this.method = method;
+        this.resource = resource;
+        this.uri = uri;
+        this.body = body;
+    }
+
+    /**
+     * @return the JSON body to send, if any
+     */
+    public @Nullable String getBody() {
+        return body;
+    }
+
+    public @Nullable String getHeader(@Nonnull String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return the headers to send in the order they were set
+     */
+    public @Nonnull Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the handler that receives list elements as they are parsed, or null if the body should be read whole
+     */
+    public @Nullable CloudSigmaListHandler getListHandler() {
+        return listHandler;
+    }
+
+    /**
+     * @return the HTTP verb for this request
+     */
+    public @Nonnull String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the resource path as provided by the caller, relative to the API endpoint
+     */
+    public @Nonnull String getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the absolute URI of the request
+     */
+    public @Nonnull URI getUri() {
+        return uri;
+    }
+
+    /**
+     * @return true if the response must come from CloudSigma rather than a cache or an identical request already in flight
+     */
+    public boolean isFresh() {
+        return fresh;
+    }
+
+    /**
+     * @return true if the request may be safely sent more than once
+     */
+    public boolean isIdempotent() {
+        return !method.equals(POST);
+    }
+
+    /**
+     * @return true if a successful response body is handed to a list handler instead of being returned as a string
+     */
+    public boolean isStreaming() {
+        return (listHandler != null);
+    }
+
+    public void setFresh(boolean fresh) {
+        this.fresh = fresh;
+    }
+
+    public void setHeader(@Nonnull String name, @Nonnull String value) {
+        headers.put(name, value);
+    }
+
+    public void setListHandler(@Nullable CloudSigmaListHandler listHandler) {
+        this.listHandler = listHandler;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (method + " " + uri);
+    }
+}
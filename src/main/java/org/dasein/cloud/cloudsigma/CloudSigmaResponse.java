@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.http.Header;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The raw result of a {@link CloudSigmaRequest}, before {@link CloudSigmaMethod} interprets the status code.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaResponse {
+    private String   body;
+    private Header[] headers;
+    private String   reasonPhrase;
+    private int      statusCode;
+
+    public CloudSigmaResponse(int statusCode, @Nonnull String reasonPhrase, @Nonnull Header[] headers, @Nullable String body) {
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * @return the response body, or null if CloudSigma returned no entity or it was streamed to a list handler
+     */
+    public @Nullable String getBody() {
+        return body;
+    }
+
+    public @Nullable String getHeader(@Nonnull String name) {
+        for (Header h : headers) {
+            if (h.getName().equalsIgnoreCase(name)) {
+                return h.getValue();
+            }
+        }
+        return null;
+    }
+
+    public @Nonnull Header[] getHeaders() {
+        return headers;
+    }
+
+    public @Nonnull String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (statusCode + " " + reasonPhrase);
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and a latency histogram for the calls made against a single CloudSigma endpoint, identified by HTTP verb
+ * and normalized resource path. Latencies are kept in logarithmic buckets with four sub-buckets per power of two, so
+ * recording a call is a handful of atomic increments and percentiles are accurate to within 25%.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+    static private final int BUCKETS = 168;
+
+    /**
+     * @param micros a latency in microseconds
+     * @return the histogram bucket holding the latency
+     */
+    static int toBucket(long micros) {
+        if (micros < 4L) {
+            return (int) Math.max(0L, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >> (exponent - 2)) & 3L);
+
+        return Math.min(BUCKETS - 1, (exponent - 1) * 4 + sub);
+    }
+
+    /**
+     * @param bucket a histogram bucket
+     * @return the largest latency in microseconds the bucket holds
+     */
+    static long toUpperBound(int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        int exponent = bucket / 4 + 1;
+        int sub = bucket % 4;
+
+        return ((5L + sub) << (exponent - 2)) - 1L;
+    }
+
+    private final String          verb;
+    private final String          path;
+    private final AtomicLong      count = new AtomicLong(0L);
+    private final AtomicLong      errors = new AtomicLong(0L);
+    private final AtomicLong      bytesIn = new AtomicLong(0L);
+    private final AtomicLong      bytesOut = new AtomicLong(0L);
+    private final AtomicLong      totalMicros = new AtomicLong(0L);
+    private final AtomicLong      maxMicros = new AtomicLong(0L);
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public EndpointMetrics(@Nonnull String verb, @Nonnull String path) {
+        this.verb = verb;
+        this.path = path;
+    }
+
+    /**
+     * Records a single call.
+     * @param micros how long the call took in microseconds
+     * @param error true if the call failed
+     * @param sent the number of bytes sent
+     * @param received the number of bytes received
+     */
+    public void record(long micros, boolean error, long sent, long received) {
+        count.incrementAndGet();
+        if (error) {
+            errors.incrementAndGet();
+        }
+        bytesOut.addAndGet(sent);
+        bytesIn.addAndGet(received);
+        totalMicros.addAndGet(micros);
+        histogram.incrementAndGet(toBucket(micros));
+
+        long max = maxMicros.get();
+
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * @return a consistent copy of the current values
+     */
+    public @Nonnull EndpointSnapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        return new EndpointSnapshot(verb, path, count.get(), errors.get(), bytesIn.get(), bytesOut.get(), totalMicros.get(), maxMicros.get(), buckets);
+    }
+
+    @Override
+    public String getVerb() {
+        return verb;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return snapshot().getMeanMillis();
+    }
+
+    @Override
+    public double getMedianMillis() {
+        return snapshot().getPercentileMillis(50.0);
+    }
+
+    @Override
+    public double get90thPercentileMillis() {
+        return snapshot().getPercentileMillis(90.0);
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return snapshot().getPercentileMillis(99.0);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        count.set(0L);
+        errors.set(0L);
+        bytesIn.set(0L);
+        bytesOut.set(0L);
+        totalMicros.set(0L);
+        maxMicros.set(0L);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0L);
+        }
+    }
+}
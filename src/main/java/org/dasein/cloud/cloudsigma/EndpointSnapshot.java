@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An immutable copy of the metrics for a single CloudSigma endpoint at a point in time.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class EndpointSnapshot {
+    private final String verb;
+    private final String path;
+    private final long   count;
+    private final long   errors;
+    private final long   bytesIn;
+    private final long   bytesOut;
+    private final long   totalMicros;
+    private final long   maxMicros;
+    private final long[] histogram;
+
+    EndpointSnapshot(@Nonnull String verb, @Nonnull String path, long count, long errors, long bytesIn, long bytesOut, long totalMicros, long maxMicros, @Nonnull long[] histogram) {
+        this.verb = verb;
+        this.path = path;
+        this.count = count;
+        this.errors = errors;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.totalMicros = totalMicros;
+        this.maxMicros = maxMicros;
+        this.histogram = histogram;
+    }
+
+    public @Nonnull String getVerb() {
+        return verb;
+    }
+
+    /**
+     * @return the resource path with IDs replaced by placeholders, such as <code>/servers/{uuid}/</code>
+     */
+    public @Nonnull String getPath() {
+        return path;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errors;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public double getMeanMillis() {
+        return (count == 0L ? 0.0 : (totalMicros / 1000.0) / count);
+    }
+
+    public double getMaxMillis() {
+        return maxMicros / 1000.0;
+    }
+
+    /**
+     * @param percentile the percentile to estimate, from 0 to 100
+     * @return the latency in milliseconds at or below which the given percentage of calls completed
+     */
+    public double getPercentileMillis(double percentile) {
+        long total = 0L;
+
+        for (long c : histogram) {
+            total += c;
+        }
+        if (total == 0L) {
+            return 0.0;
+        }
+        long rank = (long) Math.ceil((percentile / 100.0) * total);
+        long seen = 0L;
+
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank && histogram[i] > 0L) {
+                return Math.min(EndpointMetrics.toUpperBound(i), maxMicros) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (verb + " " + path + " count=" + count + " errors=" + errors + " p50=" + getPercentileMillis(50.0) + "ms p99=" + getPercentileMillis(99.0) + "ms");
+    }
+}
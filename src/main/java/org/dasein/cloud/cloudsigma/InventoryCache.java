@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An optional, provider-scoped cache of individual CloudSigma resources. It sits in the request pipeline and
+ * answers repeated GETs for a single server, drive, IP, VLAN or firewall policy from memory until the TTL for that
+ * resource type expires. Every resource type is disabled unless a positive TTL is set for it in the custom properties
+ * of the provider context. The cache is bounded and evicts the least recently used entries once full.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class InventoryCache implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(InventoryCache.class);
+
+    /**
+     * Custom property for the maximum number of resources held in the cache (default 5000).
+     */
+    static public final String MAX_ENTRIES = "cacheMaxEntries";
+
+    /**
+     * The kinds of resource that may be cached, each with its own TTL property in milliseconds.
+     */
+    static public enum ResourceType {
+        SERVER("servers", "serverCacheTtlMillis"),
+        DRIVE("drives", "driveCacheTtlMillis"),
+        LIBRARY_DRIVE("libdrives", "libraryDriveCacheTtlMillis"),
+        IP("ips", "ipCacheTtlMillis"),
+        VLAN("vlans", "vlanCacheTtlMillis"),
+        FIREWALL("fwpolicies", "firewallCacheTtlMillis");
+
+        private String path;
+        private String ttlProperty;
+
+        private ResourceType(@Nonnull String path, @Nonnull String ttlProperty) {
+            this.path = path;
+            this.ttlProperty = ttlProperty;
+        }
+
+        /**
+         * @return the collection under the API endpoint holding resources of this type
+         */
+        public @Nonnull String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the custom property that sets the TTL in milliseconds for resources of this type
+         */
+        public @Nonnull String getTtlProperty() {
+            return ttlProperty;
+        }
+
+        static public @Nullable ResourceType forPath(@Nonnull String path) {
+            for (ResourceType type : values()) {
+                if (type.path.equals(path)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    static private final Pattern SINGLE_RESOURCE = Pattern.compile("^/?(servers|drives|libdrives|ips|vlans|fwpolicies)/([^/?]+)/?$");
+    static private final Pattern RESOURCE_PREFIX = Pattern.compile("^/?(servers|drives|libdrives|ips|vlans|fwpolicies)/([^/?]+)(/.*)?$");
+
+    /**
+     * Statuses a resource passes through on its way to a stable state. Responses in these states are never cached
+     * so anyone waiting on the transition sees it complete.
+     */
+    static private final Set<String> TRANSITIONAL = new HashSet<String>(Arrays.asList("starting", "stopping", "creating", "cloning_src", "cloning_dst", "resizing"));
+
+    static private class Entry {
+        private CloudSigmaResponse response;
+        private long               expires;
+
+        private Entry(@Nonnull CloudSigmaResponse response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    private final Map<String, Entry>       entries;
+    private final AtomicLong               evictions = new AtomicLong(0L);
+    private final AtomicLong               generation = new AtomicLong(0L);
+    private final AtomicLong               hits = new AtomicLong(0L);
+    private final AtomicLong               misses = new AtomicLong(0L);
+    private final Map<ResourceType, Long>  ttls = new HashMap<ResourceType, Long>();
+
+    public InventoryCache(@Nonnull CloudSigma provider) {
+        final int maxEntries = (int) provider.getLongProperty(MAX_ENTRIES, 5000L);
+
+        for (ResourceType type : ResourceType.values()) {
+            ttls.put(type, provider.getLongProperty(type.getTtlProperty(), 0L));
+        }
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return true if at least one resource type has caching enabled
+     */
+    public boolean isEnabled() {
+        for (Long ttl : ttls.values()) {
+            if (ttl > 0L) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEnabled(@Nonnull ResourceType type) {
+        return (getTtl(type) > 0L);
+    }
+
+    public long getTtl(@Nonnull ResourceType type) {
+        Long ttl = ttls.get(type);
+
+        return (ttl == null ? 0L : ttl);
+    }
+
+    /**
+     * @return the number of requests answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of cacheable requests that had to go to CloudSigma
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries dropped to keep the cache within its size bound
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Drops any cached copy of a single resource. Support classes call this when a change to one resource alters the
+     * representation of another, for example attaching a drive changes the drive's <code>mounted_on</code> list.
+     * @param type the type of the affected resource
+     * @param id the ID of the affected resource
+     */
+    public void invalidate(@Nonnull ResourceType type, @Nonnull String id) {
+        generation.incrementAndGet();
+        synchronized (this) {
+            entries.remove(toKey(type, id));
+        }
+    }
+
+    /**
+     * Drops every cached resource of the specified type.
+     * @param type the type of resource to drop
+     */
+    public void invalidate(@Nonnull ResourceType type) {
+        String prefix = type.getPath() + "/";
+
+        generation.incrementAndGet();
+        synchronized (this) {
+            Iterator<String> it = entries.keySet().iterator();
+
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        if (request.isStreaming()) {
+            return chain.proceed(request);
+        }
+        if (!request.getMethod().equals(CloudSigmaRequest.GET)) {
+            return mutate(request, chain);
+        }
+        Matcher m = SINGLE_RESOURCE.matcher(request.getResource());
+
+        if (!m.matches() || m.group(2).equals("detail")) {
+            return chain.proceed(request);
+        }
+        ResourceType type = ResourceType.forPath(m.group(1));
+        long ttl = (type == null ? 0L : getTtl(type));
+
+        if (ttl < 1L) {
+            return chain.proceed(request);
+        }
+        String key = toKey(type, m.group(2));
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null) {
+                //a fresh read replaces the entry instead of being answered from it
+                if (!request.isFresh() && entry.expires > System.currentTimeMillis()) {
+                    hits.incrementAndGet();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Cache hit for " + request);
+                    }
+                    return entry.response;
+                }
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        long before = generation.get();
+        CloudSigmaResponse response = chain.proceed(request);
+
+        store(key, response, ttl, before);
+        return response;
+    }
+
+    /**
+     * Evicts the resource a mutating request targets, including any of its actions, and caches the updated
+     * representation CloudSigma returns from a successful PUT.
+     */
+    private @Nonnull CloudSigmaResponse mutate(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        Matcher m = RESOURCE_PREFIX.matcher(request.getResource());
+        ResourceType type = (m.matches() ? ResourceType.forPath(m.group(1)) : null);
+
+        if (type == null) {
+            return chain.proceed(request);
+        }
+        String id = m.group(2);
+
+        invalidate(type, id);
+        CloudSigmaResponse response;
+
+        try {
+            response = chain.proceed(request);
+        } finally {
+            //drop anything a concurrent read cached while the change was in flight
+            invalidate(type, id);
+        }
+        long ttl = getTtl(type);
+
+        if (ttl > 0L && request.getMethod().equals(CloudSigmaRequest.PUT) && SINGLE_RESOURCE.matcher(request.getResource()).matches()) {
+            store(toKey(type, id), response, ttl, generation.get());
+        }
+        return response;
+    }
+
+    private void store(@Nonnull String key, @Nonnull CloudSigmaResponse response, long ttl, long expectedGeneration) {
+        if (response.getStatusCode() != CloudSigmaMethod.OK || response.getBody() == null || isTransitional(response.getBody())) {
+            return;
+        }
+        synchronized (this) {
+            //skip the store if anything was changed while the request was in flight
+            if (generation.get() == expectedGeneration) {
+                entries.put(key, new Entry(response, System.currentTimeMillis() + ttl));
+            }
+        }
+    }
+
+    private boolean isTransitional(@Nonnull String body) {
+        try {
+            JSONObject json = new JSONObject(body);
+
+            return TRANSITIONAL.contains(json.optString("status", ""));
+        } catch (JSONException e) {
+            return true;
+        }
+    }
+
+    private @Nonnull String toKey(@Nonnull ResourceType type, @Nonnull String id) {
+        return (type.getPath() + "/" + id);
+    }
+}
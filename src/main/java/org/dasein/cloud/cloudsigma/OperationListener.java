@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives timing information for the long-running operations performed against CloudSigma, such as launches,
+ * clones, captures and terminations. Listeners are called on the thread that finished the phase or operation and
+ * should hand the data off quickly.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public interface OperationListener {
+    /**
+     * Called when a phase of an operation has finished.
+     * @param trace the operation the phase belongs to
+     * @param span the phase that finished
+     */
+    public void phaseCompleted(@Nonnull OperationTrace trace, @Nonnull OperationSpan span);
+
+    /**
+     * Called once when an operation has finished, successfully or not.
+     * @param trace the finished operation
+     */
+    public void operationCompleted(@Nonnull OperationTrace trace);
+}
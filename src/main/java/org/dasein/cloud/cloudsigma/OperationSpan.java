@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import javax.annotation.Nonnull;
+
+/**
+ * The timing of a single phase of an operation, such as the drive clone in a launch.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class OperationSpan {
+    private final String name;
+    private final long   startTimestamp;
+    private final long   startNanos;
+    private long         durationMillis = -1L;
+    private int          httpCalls = 0;
+    private long         waitMillis = 0L;
+
+    OperationSpan(@Nonnull String name) {
+        this.name = name;
+        this.startTimestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    void recordCall() {
+        httpCalls++;
+    }
+
+    void recordWait(long millis) {
+        waitMillis += millis;
+    }
+
+    void finish() {
+        if (durationMillis < 0L) {
+            durationMillis = (System.nanoTime() - startNanos) / 1000000L;
+        }
+    }
+
+    public @Nonnull String getName() {
+        return name;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * @return how long the phase took in milliseconds, or -1 if it is still running
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the number of HTTP calls made against CloudSigma during the phase
+     */
+    public int getHttpCallCount() {
+        return httpCalls;
+    }
+
+    /**
+     * @return the time in milliseconds spent blocked waiting for state changes during the phase
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return (name + " " + durationMillis + "ms calls=" + httpCalls + " waited=" + waitMillis + "ms");
+    }
+}
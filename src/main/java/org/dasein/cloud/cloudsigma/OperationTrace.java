@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timing spans for the phases of one long-running operation. A trace is bound to the thread doing the work so
+ * that the HTTP calls made and the time spent waiting for state changes are charged to whichever phase is current.
+ * Completed phases and operations are reported to the provider's {@link OperationListener}s.
+ * <pre>
+ * OperationTrace trace = OperationTrace.begin(provider, "terminate", vmId);
+ *
+ * try {
+ *     trace.phase("stop wait");
+ *     ...
+ *     trace.succeeded();
+ * }
+ * finally {
+ *     trace.end();
+ * }
+ * </pre>
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class OperationTrace {
+    static private final Logger logger = CloudSigma.getLogger(OperationTrace.class);
+
+    static private final ThreadLocal<OperationTrace> current = new ThreadLocal<OperationTrace>();
+
+    /**
+     * Starts tracing an operation on the current thread.
+     * @param provider the provider whose listeners receive the trace
+     * @param operation the name of the operation, such as <code>launch</code>
+     * @param resourceId the resource being operated on, if known
+     * @return the new trace, which must be ended in a finally block
+     */
+    static public @Nonnull OperationTrace begin(@Nonnull CloudSigma provider, @Nonnull String operation, @Nullable String resourceId) {
+        OperationTrace trace = new OperationTrace(provider, operation, resourceId);
+
+        trace.parent = trace.attach();
+        return trace;
+    }
+
+    /**
+     * @return the operation being traced on the current thread, if any
+     */
+    static public @Nullable OperationTrace current() {
+        return current.get();
+    }
+
+    /**
+     * Restores the trace that was bound to the current thread before {@link #attach()} was called.
+     * @param previous the value returned by {@link #attach()}
+     */
+    static public void restore(@Nullable OperationTrace previous) {
+        if (previous == null) {
+            current.remove();
+        }
+        else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Charges an HTTP call to the current phase of the operation traced on this thread, if any.
+     */
+    static public void recordCall() {
+        OperationTrace trace = current.get();
+
+        if (trace != null) {
+            trace.call();
+        }
+    }
+
+    /**
+     * Charges time spent blocked to the current phase of the operation traced on this thread, if any.
+     * @param millis the time spent waiting in milliseconds
+     */
+    static public void recordWait(long millis) {
+        OperationTrace trace = current.get();
+
+        if (trace != null) {
+            trace.waited(millis);
+        }
+    }
+
+    private final CloudSigma          provider;
+    private final String              operation;
+    private final long                startTimestamp;
+    private final long                startNanos;
+    private final List<OperationSpan> spans = new ArrayList<OperationSpan>();
+    private OperationSpan             span;
+    private OperationTrace            parent;
+    private String                    resourceId;
+    private long                      durationMillis = -1L;
+    private boolean                   successful = false;
+
+    /**
+     * Creates a trace that is not yet bound to any thread, for operations that move between threads. Each thread
+     * doing work for the operation should {@link #attach()} it and {@link #restore(OperationTrace)} afterwards.
+     * @param provider the provider whose listeners receive the trace
+     * @param operation the name of the operation
+     * @param resourceId the resource being operated on, if known
+     */
+    public OperationTrace(@Nonnull CloudSigma provider, @Nonnull String operation, @Nullable String resourceId) {
+        this.provider = provider;
+        this.operation = operation;
+        this.resourceId = resourceId;
+        this.startTimestamp = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Binds this trace to the current thread.
+     * @return the trace previously bound to the thread, to pass to {@link #restore(OperationTrace)}
+     */
+    public @Nullable OperationTrace attach() {
+        OperationTrace previous = current.get();
+
+        current.set(this);
+        return previous;
+    }
+
+    /**
+     * Ends the current phase, if any, and starts a new one.
+     * @param name the name of the new phase
+     */
+    public void phase(@Nonnull String name) {
+        OperationSpan finished;
+
+        synchronized (this) {
+            if (durationMillis >= 0L) {
+                return;
+            }
+            finished = span;
+            span = new OperationSpan(name);
+            spans.add(span);
+            if (finished != null) {
+                finished.finish();
+            }
+        }
+        if (finished != null) {
+            notifyPhase(finished);
+        }
+    }
+
+    /**
+     * Marks the operation as having completed successfully. Operations ended without this are reported as failed.
+     */
+    public synchronized void succeeded() {
+        successful = true;
+    }
+
+    /**
+     * Ends the operation and reports it. Further calls have no effect.
+     */
+    public void end() {
+        OperationSpan finished;
+
+        synchronized (this) {
+            if (durationMillis >= 0L) {
+                return;
+            }
+            durationMillis = (System.nanoTime() - startNanos) / 1000000L;
+            finished = span;
+            span = null;
+            if (finished != null) {
+                finished.finish();
+            }
+        }
+        if (current.get() == this) {
+            restore(parent);
+        }
+        if (finished != null) {
+            notifyPhase(finished);
+        }
+        for (OperationListener listener : provider.getOperationListeners()) {
+            try {
+                listener.operationCompleted(this);
+            } catch (Throwable t) {
+                logger.warn("Operation listener failed for " + operation + ": " + t.getMessage());
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug(toString());
+        }
+    }
+
+    public @Nonnull String getOperation() {
+        return operation;
+    }
+
+    public synchronized @Nullable String getResourceId() {
+        return resourceId;
+    }
+
+    public synchronized void setResourceId(@Nullable String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * @return how long the operation took in milliseconds, or -1 if it is still running
+     */
+    public synchronized long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public synchronized boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * @return the phases of the operation in the order they started
+     */
+    public synchronized @Nonnull List<OperationSpan> getSpans() {
+        return Collections.unmodifiableList(new ArrayList<OperationSpan>(spans));
+    }
+
+    /**
+     * @return the number of HTTP calls made across every phase
+     */
+    public synchronized int getHttpCallCount() {
+        int count = 0;
+
+        for (OperationSpan s : spans) {
+            count += s.getHttpCallCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the time in milliseconds spent blocked waiting for state changes across every phase
+     */
+    public synchronized long getWaitMillis() {
+        long millis = 0L;
+
+        for (OperationSpan s : spans) {
+            millis += s.getWaitMillis();
+        }
+        return millis;
+    }
+
+    private synchronized void call() {
+        if (span != null) {
+            span.recordCall();
+        }
+    }
+
+    private synchronized void waited(long millis) {
+        if (span != null) {
+            span.recordWait(millis);
+        }
+    }
+
+    private void notifyPhase(@Nonnull OperationSpan finished) {
+        for (OperationListener listener : provider.getOperationListeners()) {
+            try {
+                listener.phaseCompleted(this, finished);
+            } catch (Throwable t) {
+                logger.warn("Operation listener failed for " + operation + " " + finished.getName() + ": " + t.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized @Nonnull String toString() {
+        return (operation + (resourceId == null ? "" : " " + resourceId) + " " + (successful ? "succeeded" : "failed") + " in " + durationMillis + "ms " + spans);
+    }
+}
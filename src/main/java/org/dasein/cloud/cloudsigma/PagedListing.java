@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A CloudSigma listing that is fetched a page at a time with <code>limit</code> and <code>offset</code> and converted
+ * lazily as the caller iterates. While the caller works through one page, the next pages are fetched on the
+ * provider's background executor so the wait for each page overlaps with the work on the one before it. Nothing
+ * beyond the prefetch window is requested until the caller asks for it, so a caller that stops iterating early
+ * leaves at most that many page requests behind.
+ * <p>The first page is fetched when the listing is created so that a missing endpoint or a rejected request is
+ * reported as a checked exception by the list method itself. Failures on later pages are raised from the iterator
+ * as {@link CloudSigmaPagingException}. With the default page size of zero the whole listing is one request, just as
+ * it was before paging was re-enabled.</p>
+ * @param <T> the type each listed object is converted to
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class PagedListing<T> implements Iterable<T> {
+    static private final Logger logger = CloudSigma.getLogger(PagedListing.class);
+
+    /**
+     * Custom property for how many objects each list request asks for (default 0, which lists everything at once).
+     */
+    static public final String PAGE_SIZE = "listPageSize";
+
+    /**
+     * Custom property for how many pages are fetched in the background ahead of the page being read (default 2).
+     */
+    static public final String PREFETCH = "listPrefetchPages";
+
+    /**
+     * Turns a single listed object into the type the listing yields.
+     * @param <T> the type each listed object is converted to
+     */
+    public interface Converter<T> {
+        /**
+         * Called on the iterating thread for each listed object, in the order CloudSigma returns them.
+         * @param object the JSON for a single listed resource
+         * @return the converted object or null to leave it out of the listing
+         * @throws CloudException an error occurred in CloudSigma while converting the object
+         * @throws InternalException an error occurred within Dasein Cloud while converting the object
+         * @throws JSONException the object did not have the expected structure
+         */
+        public @Nullable T convert(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException;
+    }
+
+    private final Converter<T> converter;
+    private final String[]     fields;
+    private JSONObject         firstPage;
+    private final int          pageSize;
+    private final int          prefetch;
+    private final CloudSigma   provider;
+    private final String       resource;
+
+    /**
+     * Starts a listing by fetching its first page.
+     * @param provider the provider to list against
+     * @param resource the list resource without paging parameters, e.g. <code>/ips/detail/</code>
+     * @param converter the converter for each listed object
+     * @param fields the fields to request for each object, see {@link CloudSigmaMethod#withFields(String, String...)}
+     * @throws CloudException the listing does not exist or CloudSigma rejected the request
+     * @throws InternalException an error occurred within Dasein Cloud or the response could not be parsed
+     */
+    public PagedListing(@Nonnull CloudSigma provider, @Nonnull String resource, @Nonnull Converter<T> converter, @Nonnull String ... fields) throws CloudException, InternalException {
+        this.provider = provider;
+        this.resource = resource;
+        this.converter = converter;
+        this.fields = fields;
+        this.pageSize = (int) Math.max(0L, provider.getLongProperty(PAGE_SIZE, 0L));
+        this.prefetch = (int) Math.max(0L, provider.getLongProperty(PREFETCH, 2L));
+        this.firstPage = fetch(0);
+        if (firstPage == null) {
+            throw new CloudException("No " + resource + " endpoint was found");
+        }
+    }
+
+    /**
+     * @return the number of objects requested per page, or 0 if the listing is fetched in one request
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    @Override
+    public @Nonnull Iterator<T> iterator() {
+        JSONObject first;
+
+        synchronized (this) {
+            first = firstPage;
+            firstPage = null;
+        }
+        return new Pages(first);
+    }
+
+    private @Nullable JSONObject fetch(int offset) throws CloudException, InternalException {
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+        StringBuilder target = new StringBuilder(resource);
+
+        target.append(resource.indexOf('?') < 0 ? '?' : '&');
+        target.append("limit=").append(pageSize);
+        if (offset > 0) {
+            target.append("&offset=").append(offset);
+        }
+        return method.list(method.withFields(target.toString(), fields));
+    }
+
+    /**
+     * Walks the listing page by page, keeping up to {@link PagedListing#prefetch} page requests in flight ahead of the
+     * page being converted.
+     */
+    private class Pages implements Iterator<T> {
+        private final LinkedList<Future<JSONObject>> ahead = new LinkedList<Future<JSONObject>>();
+        private int       current = 0;
+        private int       index = 0;
+        private boolean   last = false;
+        private T         next;
+        private int       nextOffset = 0;
+        private JSONArray objects;
+        private int       total = -1;
+
+        private Pages(@Nullable JSONObject first) {
+            if (first != null) {
+                accept(first);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (objects != null && index < objects.length()) {
+                    try {
+                        next = converter.convert(objects.getJSONObject(index++));
+                    } catch (CloudException e) {
+                        throw new CloudSigmaPagingException("Unable to convert an object from " + resource, e);
+                    } catch (InternalException e) {
+                        throw new CloudSigmaPagingException("Unable to convert an object from " + resource, e);
+                    } catch (JSONException e) {
+                        throw new CloudSigmaPagingException("Unable to convert an object from " + resource, e);
+                    }
+                } else if (last) {
+                    return false;
+                } else {
+                    JSONObject page = nextPage();
+
+                    if (page == null) {
+                        finish();
+                        return false;
+                    }
+                    accept(page);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = next;
+
+            next = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("CloudSigma listings are read-only");
+        }
+
+        private void accept(@Nonnull JSONObject page) {
+            try {
+                objects = (page.has("objects") ? page.getJSONArray("objects") : new JSONArray());
+                index = 0;
+                if (page.has("meta") && page.getJSONObject("meta").has("total_count")) {
+                    total = page.getJSONObject("meta").getInt("total_count");
+                }
+            } catch (JSONException e) {
+                throw new CloudSigmaPagingException("Unable to read a page of " + resource, e);
+            }
+            if (nextOffset <= current) {
+                nextOffset = current + pageSize;
+            }
+            if (pageSize < 1 || objects.length() < pageSize || (total > -1 && current + objects.length() >= total)) {
+                finish();
+            } else {
+                fill();
+            }
+        }
+
+        private void fill() {
+            while (ahead.size() < prefetch && (total < 0 || nextOffset < total)) {
+                final int offset = nextOffset;
+
+                try {
+                    ahead.add(provider.getExecutor().schedule("Fetch " + resource + " at " + offset, new Callable<JSONObject>() {
+                        public JSONObject call() throws CloudException, InternalException {
+                            return fetch(offset);
+                        }
+                    }, 0L, TimeUnit.MILLISECONDS));
+                } catch (CloudException e) {
+                    //the executor is busy or closing, so the remaining pages are fetched as they are reached
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Not prefetching " + resource + " at " + offset + ": " + e.getMessage());
+                    }
+                    return;
+                }
+                nextOffset += pageSize;
+            }
+        }
+
+        private void finish() {
+            last = true;
+            for (Future<JSONObject> f : ahead) {
+                f.cancel(false);
+            }
+            ahead.clear();
+        }
+
+        private @Nullable JSONObject nextPage() {
+            if (objects != null) {
+                current += pageSize;
+            }
+            try {
+                if (ahead.isEmpty()) {
+                    nextOffset = current + pageSize;
+                    return fetch(current);
+                }
+                return ahead.removeFirst().get();
+            } catch (CloudException e) {
+                finish();
+                throw new CloudSigmaPagingException("Unable to list " + resource + " at " + current, e);
+            } catch (InternalException e) {
+                finish();
+                throw new CloudSigmaPagingException("Unable to list " + resource + " at " + current, e);
+            } catch (ExecutionException e) {
+                finish();
+                throw new CloudSigmaPagingException("Unable to list " + resource + " at " + current, (e.getCause() == null ? e : e.getCause()));
+            } catch (InterruptedException e) {
+                finish();
+                Thread.currentThread().interrupt();
+                throw new CloudSigmaPagingException("Interrupted listing " + resource + " at " + current, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that spaces out the requests made against one CloudSigma account. The bucket is shared by every
+ * provider instance connected to the same endpoint and account in this JVM, so the limit holds however many
+ * providers an application creates. Requests beyond the configured rate wait for a token rather than fail.
+ * <p>The bucket can also be paused for everyone, which is how a <code>Retry-After</code> sent with a throttled
+ * response holds back every thread using the account rather than only the one that received it.</p>
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class RateLimiter implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(RateLimiter.class);
+
+    /**
+     * Custom property for the sustained number of requests per second allowed against the account, which may be
+     * fractional such as 0.5 for one request every two seconds (default 0, no limit).
+     */
+    static public final String RATE = "requestsPerSecond";
+
+    /**
+     * Custom property for how many requests may be sent at once after a quiet period (default the rate, at least 1).
+     */
+    static public final String BURST = "requestBurst";
+
+    static private final ConcurrentHashMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+
+    /**
+     * Provides the limiter for the account of the provider's current context, creating it on first use. Only providers
+     * whose context sets {@link #RATE} change the limit, and the most recent of them applies to the account; a provider
+     * without the property uses whatever limit the account already has.
+     * @param provider the provider making requests
+     * @return the limiter shared by every provider for the same endpoint and account
+     * @throws NoContextException no context has been set for this provider
+     */
+    static public @Nonnull RateLimiter forAccount(@Nonnull CloudSigma provider) throws NoContextException {
+        ProviderContext ctx = provider.getContext();
+
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+        String key = ctx.getEndpoint() + "#" + ctx.getAccountNumber();
+        RateLimiter limiter = limiters.get(key);
+
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter();
+
+            limiter = limiters.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        double rate = provider.getDoubleProperty(RATE, Double.NaN);
+
+        if (!Double.isNaN(rate)) {
+            rate = Math.max(0.0, rate);
+            limiter.configure(rate, Math.max(1L, provider.getLongProperty(BURST, (long) Math.ceil(rate))));
+        }
+        return limiter;
+    }
+
+    private double           burst = 1;
+    private long             lastRefill = System.nanoTime();
+    private long             pausedUntil = System.nanoTime();
+    private double           rate = 0;
+    private final AtomicLong throttledCount = new AtomicLong(0L);
+    private double           tokens = Double.MAX_VALUE; //starts full once configure() sets the burst
+    private final AtomicLong waitMillis = new AtomicLong(0L);
+
+    private RateLimiter() {
+    }
+
+    /**
+     * Changes the rate and burst of the bucket.
+     * @param rate the sustained requests per second, 0 for no limit
+     * @param burst the most requests that may be sent back to back
+     */
+    public synchronized void configure(@Nonnegative double rate, @Nonnegative double burst) {
+        refill(System.nanoTime());
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        tokens = Math.min(tokens, this.burst);
+    }
+
+    /**
+     * @return the sustained requests per second, 0 if there is no limit
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the number of requests that had to wait before being sent
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds requests have spent waiting to be sent
+     */
+    public long getWaitMillis() {
+        return waitMillis.get();
+    }
+
+    /**
+     * Holds every request against the account for at least the specified time.
+     * @param millis how long to hold requests
+     */
+    public synchronized void pause(@Nonnegative long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        if (until - pausedUntil > 0) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Holding requests for " + millis + "ms");
+            }
+            pausedUntil = until;
+        }
+    }
+
+    /**
+     * Blocks until a request may be sent.
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        boolean waited = false;
+
+        while (true) {
+            long wait;
+
+            synchronized (this) {
+                long now = System.nanoTime();
+
+                wait = pausedUntil - now;
+                if (wait <= 0L) {
+                    if (rate <= 0) {
+                        return;
+                    }
+                    refill(now);
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    wait = (long) Math.ceil(((1 - tokens) / rate) * TimeUnit.SECONDS.toNanos(1));
+                }
+            }
+            if (!waited) {
+                waited = true;
+                throttledCount.incrementAndGet();
+            }
+            waitMillis.addAndGet(TimeUnit.NANOSECONDS.toMillis(wait));
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted waiting to send " + request);
+        }
+        return chain.proceed(request);
+    }
+
+    private void refill(long now) {
+        if (rate > 0) {
+            tokens = Math.min(burst, tokens + ((now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1)) * rate);
+        }
+        lastRefill = now;
+    }
+}
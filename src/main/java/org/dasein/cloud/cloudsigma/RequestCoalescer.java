@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses identical GETs that are in flight at the same time into a single request. The first caller for a URI
+ * goes to CloudSigma; anyone asking for the same URI before that response arrives waits for it and receives the same
+ * response, or the same error. Dashboards, autoscalers and state polling loops that look at the same resource at the
+ * same moment therefore cost one request rather than one each.
+ * <p>Streamed listings are never coalesced since their body goes straight to the caller's handler and is not
+ * available to share. Any other request through the provider detaches the GETs already in flight, so a read issued
+ * after a change completes never receives a response fetched before it.</p>
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class RequestCoalescer implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(RequestCoalescer.class);
+
+    /**
+     * Custom property for whether identical concurrent GETs are coalesced (default true).
+     */
+    static public final String ENABLED = "coalesceRequests";
+
+    /**
+     * A request in flight and, once it completes, its outcome.
+     */
+    static private class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private CloudException       cloudError;
+        private InternalException    internalError;
+        private CloudSigmaResponse   response;
+    }
+
+    private final AtomicLong                        coalesced = new AtomicLong(0L);
+    private final boolean                           enabled;
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    public RequestCoalescer(@Nonnull CloudSigma provider) {
+        this.enabled = provider.getBooleanProperty(ENABLED, true);
+    }
+
+    /**
+     * @return true if identical concurrent GETs are coalesced for this provider
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the number of GETs answered with the response to a request that was already in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of distinct GETs currently in flight
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        if (!request.getMethod().equals(CloudSigmaRequest.GET)) {
+            try {
+                return chain.proceed(request);
+            } finally {
+                flights.clear();
+            }
+        }
+        if (request.isStreaming() || request.isFresh()) {
+            return chain.proceed(request);
+        }
+        String key = request.getUri().toString();
+        Flight flight = new Flight();
+        Flight current = flights.putIfAbsent(key, flight);
+
+        if (current != null) {
+            return join(request, current);
+        }
+        try {
+            flight.response = chain.proceed(request);
+            return flight.response;
+        } catch (CloudException e) {
+            flight.cloudError = e;
+            throw e;
+        } catch (InternalException e) {
+            flight.internalError = e;
+            throw e;
+        } catch (RuntimeException e) {
+            flight.internalError = new InternalException(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+            flight.done.countDown();
+        }
+    }
+
+    private @Nonnull CloudSigmaResponse join(@Nonnull CloudSigmaRequest request, @Nonnull Flight flight) throws CloudException, InternalException {
+        coalesced.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Joining " + request + " already in flight");
+        }
+        try {
+            flight.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        if (flight.cloudError != null) {
+            throw flight.cloudError;
+        }
+        if (flight.internalError != null) {
+            throw flight.internalError;
+        }
+        if (flight.response == null) {
+            throw new InternalException("The request " + request + " this call was waiting on failed");
+        }
+        return flight.response;
+    }
+}
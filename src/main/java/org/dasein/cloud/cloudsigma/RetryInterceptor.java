@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries requests that failed for reasons that are likely to pass, waiting a jittered, exponentially growing time
+ * between attempts. Requests that may safely be sent twice are retried after an I/O error or a 429, 502, 503 or
+ * 504 response. A POST is retried only after a 429, since CloudSigma did nothing with a throttled request. Streamed
+ * listings are not retried after an I/O error because part of the listing may already have reached the caller.
+ * <p>A <code>Retry-After</code> on the response sets the minimum wait, and for throttling it also pauses the
+ * account's {@link RateLimiter} so every other thread backs off too. A wait longer than the maximum delay is not
+ * attempted and the response is handed back as it is.</p>
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class RetryInterceptor implements CloudSigmaInterceptor {
+    static private final Logger logger = CloudSigma.getLogger(RetryInterceptor.class);
+
+    /**
+     * Custom property for how many times a failed request is retried (default 3).
+     */
+    static public final String MAX_RETRIES = "maxRetries";
+
+    /**
+     * Custom property for the delay in milliseconds before the first retry, doubled for each one after (default 250).
+     */
+    static public final String BASE_DELAY = "retryBaseMillis";
+
+    /**
+     * Custom property for the longest delay in milliseconds between attempts (default 20000).
+     */
+    static public final String MAX_DELAY = "retryMaxMillis";
+
+    static private final String RFC_1123 = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    /**
+     * Reads a <code>Retry-After</code> header given either in seconds or as an HTTP date.
+     * @param value the header value
+     * @return the requested wait in milliseconds, or -1 if there is no valid value
+     */
+    static public long parseRetryAfter(@Nullable String value) {
+        if (value == null || value.trim().length() < 1) {
+            return -1L;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0L, Long.parseLong(value) * 1000L);
+        } catch (NumberFormatException ignore) {
+            // not delta-seconds, so try an HTTP date
+        }
+        try {
+            Date when = new SimpleDateFormat(RFC_1123, Locale.US).parse(value);
+
+            return Math.max(0L, when.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            logger.warn("Ignoring invalid Retry-After: " + value);
+            return -1L;
+        }
+    }
+
+    private final long       baseDelay;
+    private final AtomicLong exhaustedCount = new AtomicLong(0L);
+    private final long       maxDelay;
+    private final int        maxRetries;
+    private final CloudSigma provider;
+    private final Random     random = new Random();
+    private final AtomicLong retryCount = new AtomicLong(0L);
+
+    public RetryInterceptor(@Nonnull CloudSigma provider) {
+        this.provider = provider;
+        this.maxRetries = (int) Math.max(0L, provider.getLongProperty(MAX_RETRIES, 3L));
+        this.baseDelay = Math.max(1L, provider.getLongProperty(BASE_DELAY, 250L));
+        this.maxDelay = Math.max(baseDelay, provider.getLongProperty(MAX_DELAY, 20000L));
+    }
+
+    /**
+     * @return true if failed requests are retried at all
+     */
+    public boolean isEnabled() {
+        return (maxRetries > 0);
+    }
+
+    /**
+     * @return the number of retries made
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the number of requests that still failed after every retry was used
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    @Override
+    public @Nonnull CloudSigmaResponse intercept(@Nonnull CloudSigmaRequest request, @Nonnull Chain chain) throws CloudException, InternalException {
+        for (int attempt = 0; ; attempt++) {
+            CloudSigmaResponse response;
+
+            try {
+                response = chain.proceed(request);
+            } catch (CloudException e) {
+                if (!isRetryable(request, e)) {
+                    throw e;
+                }
+                if (attempt >= maxRetries) {
+                    exhaustedCount.incrementAndGet();
+                    throw e;
+                }
+                backOff(request, attempt, getDelay(attempt), e.getMessage());
+                continue;
+            }
+            int code = response.getStatusCode();
+
+            if (!isRetryable(request, code)) {
+                return response;
+            }
+            if (attempt >= maxRetries) {
+                exhaustedCount.incrementAndGet();
+                return response;
+            }
+            long delay = getDelay(attempt);
+            long retryAfter = parseRetryAfter(response.getHeader("Retry-After"));
+
+            if (retryAfter > maxDelay) {
+                logger.warn("Not retrying " + request + " since CloudSigma asked for a wait of " + retryAfter + "ms");
+                return response;
+            }
+            if (retryAfter > -1L) {
+                delay = Math.max(delay, retryAfter);
+                if (code == CloudSigmaMethod.TOO_MANY_REQUESTS || code == CloudSigmaMethod.SERVICE_UNAVAILABLE) {
+                    provider.getRateLimiter().pause(retryAfter);
+                }
+            }
+            backOff(request, attempt, delay, response.toString());
+        }
+    }
+
+    private void backOff(@Nonnull CloudSigmaRequest request, int attempt, @Nonnegative long delay, @Nonnull String reason) throws InternalException {
+        retryCount.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retry " + (attempt + 1) + " of " + request + " in " + delay + "ms after " + reason);
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted waiting to retry " + request);
+        }
+    }
+
+    /**
+     * Picks a delay between half and all of the exponential backoff for the attempt so that threads that failed
+     * together do not retry together.
+     */
+    private long getDelay(int attempt) {
+        long cap = (attempt >= 30 ? maxDelay : Math.min(maxDelay, baseDelay << attempt));
+        long half = cap / 2L;
+
+        return half + (long) (random.nextDouble() * (cap - half));
+    }
+
+    private boolean isRetryable(@Nonnull CloudSigmaRequest request, int code) {
+        if (code == CloudSigmaMethod.TOO_MANY_REQUESTS) {
+            return true;
+        }
+        if (!request.isIdempotent()) {
+            return false;
+        }
+        return (code == CloudSigmaMethod.BAD_GATEWAY || code == CloudSigmaMethod.SERVICE_UNAVAILABLE || code == CloudSigmaMethod.GATEWAY_TIMEOUT);
+    }
+
+    private boolean isRetryable(@Nonnull CloudSigmaRequest request, @Nonnull CloudException e) {
+        return (request.isIdempotent() && !request.isStreaming() && e.getCause() instanceof IOException);
+    }
+}
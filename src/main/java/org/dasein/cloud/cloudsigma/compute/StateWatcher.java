@@ -0,0 +1,347 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.CloudSigmaListHandler;
+import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
+import org.dasein.cloud.cloudsigma.OperationTrace;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tracks the status of servers and drives for everything currently waiting on a state change. Rather than each
+ * waiting thread polling its own resource, a single poller lists the status of all servers and all drives once per
+ * tick and wakes every waiter whose resource has reached one of the statuses it is waiting for. The cost of waiting
+ * is therefore at most two lightweight requests per tick no matter how many operations are in flight.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class StateWatcher {
+    static private final Logger logger = CloudSigma.getLogger(StateWatcher.class);
+
+    /**
+     * Custom property for how often in milliseconds the watcher polls CloudSigma while anything is waiting (default 15000).
+     */
+    static public final String INTERVAL = "stateWatchIntervalMillis";
+
+    /**
+     * Reported in place of a status when no poll managed to see the resource, either because every listing failed or
+     * because the watcher was closed first. Unlike null it says nothing about whether the resource still exists.
+     */
+    static public final String UNOBSERVED = "(unobserved)";
+
+    /**
+     * The kinds of resource that may be watched, each with the listing used to poll their status.
+     */
+    static public enum Kind {
+        SERVER("/servers/?limit=0&fields=uuid,status"),
+        DRIVE("/drives/?limit=0&fields=uuid,status");
+
+        private String listing;
+
+        private Kind(@Nonnull String listing) {
+            this.listing = listing;
+        }
+    }
+
+    /**
+     * Receives the outcome of an asynchronous wait started with
+     * {@link StateWatcher#watch(Kind, String, long, Listener, String...)}.
+     */
+    public interface Listener {
+        /**
+         * Called exactly once, on the provider's background executor, when the wait is over.
+         * @param status the matching status, the last status seen if the wait timed out, {@link #UNOBSERVED} if
+         *               the resource was never seen, or null if a successful poll found the resource no longer exists
+         */
+        public void finished(@Nullable String status);
+    }
+
+    private class Waiter {
+        private Kind           kind;
+        private String         id;
+        private Set<String>    statuses;
+        private long           deadline;
+        private Listener       listener;
+        private CountDownLatch latch = new CountDownLatch(1);
+        private AtomicBoolean  completed = new AtomicBoolean(false);
+        private volatile String  status;
+        private volatile boolean gone = false;
+
+        private Waiter(@Nonnull Kind kind, @Nonnull String id, long timeout, @Nullable Listener listener, @Nonnull String ... statuses) {
+            this.kind = kind;
+            this.id = id;
+            this.deadline = System.currentTimeMillis() + timeout;
+            this.listener = listener;
+            this.statuses = new HashSet<String>();
+            for (String s : statuses) {
+                this.statuses.add(s.toLowerCase());
+            }
+        }
+
+        private @Nullable String getResult() {
+            if (gone) {
+                return null;
+            }
+            return (status == null ? UNOBSERVED : status);
+        }
+
+        private void complete() {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            latch.countDown();
+            if (listener != null) {
+                unregister(this);
+                notifyListener(this);
+            }
+        }
+    }
+
+    private final CloudSigma   provider;
+    private final long         interval;
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+    private Thread             poller;
+    private boolean            closed = false;
+
+    public StateWatcher(@Nonnull CloudSigma provider) {
+        this.provider = provider;
+        this.interval = Math.max(1000L, provider.getLongProperty(INTERVAL, 15000L));
+    }
+
+    /**
+     * Blocks until the specified resource reaches one of the specified CloudSigma statuses, disappears, or the
+     * timeout expires.
+     * @param kind the kind of resource being watched
+     * @param id the unique ID of the resource
+     * @param timeout how long to wait in milliseconds
+     * @param statuses the raw CloudSigma statuses to wait for, such as <code>stopped</code> or <code>unmounted</code>
+     * @return the matching status, the last status seen if the wait timed out, {@link #UNOBSERVED} if the resource
+     * was never seen, or null if a successful poll found the resource no longer exists
+     */
+    public @Nullable String waitFor(@Nonnull Kind kind, @Nonnull String id, long timeout, @Nonnull String ... statuses) {
+        Waiter waiter = new Waiter(kind, id, timeout, null, statuses);
+        long start = System.currentTimeMillis();
+
+        register(waiter);
+        try {
+            if (!waiter.latch.await(timeout, TimeUnit.MILLISECONDS) && logger.isDebugEnabled()) {
+                logger.debug("Timed out waiting for " + kind + " " + id + " to reach " + waiter.statuses + "; last status " + waiter.status);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unregister(waiter);
+            OperationTrace.recordWait(System.currentTimeMillis() - start);
+        }
+        return waiter.getResult();
+    }
+
+    /**
+     * Waits for the specified resource to reach one of the specified CloudSigma statuses without blocking the caller.
+     * The listener is notified when the resource reaches a matching status, disappears, or the timeout expires.
+     * @param kind the kind of resource being watched
+     * @param id the unique ID of the resource
+     * @param timeout how long to wait in milliseconds
+     * @param listener the listener to notify when the wait is over
+     * @param statuses the raw CloudSigma statuses to wait for, such as <code>stopped</code> or <code>unmounted</code>
+     */
+    public void watch(@Nonnull Kind kind, @Nonnull String id, long timeout, @Nonnull Listener listener, @Nonnull String ... statuses) {
+        register(new Waiter(kind, id, timeout, listener, statuses));
+    }
+
+    /**
+     * Blocks until the specified resource no longer exists in CloudSigma or the timeout expires.
+     * @param kind the kind of resource being watched
+     * @param id the unique ID of the resource
+     * @param timeout how long to wait in milliseconds
+     * @return true if the resource is gone
+     */
+    public boolean waitForRemoval(@Nonnull Kind kind, @Nonnull String id, long timeout) {
+        Waiter waiter = new Waiter(kind, id, timeout, null);
+        long start = System.currentTimeMillis();
+
+        register(waiter);
+        try {
+            waiter.latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unregister(waiter);
+            OperationTrace.recordWait(System.currentTimeMillis() - start);
+        }
+        return waiter.gone;
+    }
+
+    /**
+     * Stops polling and releases anyone still waiting.
+     */
+    public void close() {
+        List<Waiter> current;
+
+        synchronized (this) {
+            closed = true;
+            current = new ArrayList<Waiter>(waiters);
+            waiters.clear();
+            notifyAll();
+        }
+        for (Waiter w : current) {
+            w.complete();
+        }
+    }
+
+    private synchronized void register(@Nonnull Waiter waiter) {
+        if (closed) {
+            waiter.complete();
+            return;
+        }
+        waiters.add(waiter);
+        if (poller == null) {
+            poller = new Thread() {
+                public void run() {
+                    poll();
+                }
+            };
+            poller.setName("CloudSigma State Watcher");
+            poller.setDaemon(true);
+            poller.start();
+        }
+    }
+
+    private synchronized void unregister(@Nonnull Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    private void notifyListener(@Nonnull final Waiter waiter) {
+        Runnable notification = new Runnable() {
+            public void run() {
+                try {
+                    waiter.listener.finished(waiter.getResult());
+                } catch (Throwable t) {
+                    logger.error("State watch listener for " + waiter.kind + " " + waiter.id + " failed: " + t.getMessage(), t);
+                }
+            }
+        };
+
+        try {
+            provider.getExecutor().submit("Notify " + waiter.kind + " " + waiter.id + " watch", notification);
+        } catch (CloudException e) {
+            logger.warn("Notifying " + waiter.kind + " " + waiter.id + " watch on the calling thread: " + e.getMessage());
+            notification.run();
+        }
+    }
+
+    private void poll() {
+        while (true) {
+            List<Waiter> current;
+
+            synchronized (this) {
+                try {
+                    wait(interval);
+                } catch (InterruptedException ignore) {
+                }
+                if (closed || waiters.isEmpty()) {
+                    poller = null;
+                    return;
+                }
+                current = new ArrayList<Waiter>(waiters);
+            }
+            for (Kind kind : Kind.values()) {
+                try {
+                    tick(kind, current);
+                } catch (Throwable t) {
+                    logger.warn("Unable to poll " + kind + " status: " + t.getMessage());
+                }
+            }
+            long now = System.currentTimeMillis();
+
+            for (Waiter w : current) {
+                if (w.listener != null && w.deadline <= now) {
+                    w.complete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the status of every resource of one kind and completes the waiters it satisfies.
+     */
+    private void tick(@Nonnull Kind kind, @Nonnull List<Waiter> current) throws CloudException, InternalException {
+        final HashSet<String> ids = new HashSet<String>();
+
+        for (Waiter w : current) {
+            if (w.kind.equals(kind)) {
+                ids.add(w.id);
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        final Map<String, String> statuses = new HashMap<String, String>();
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        boolean found = method.stream(kind.listing, new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                String id = object.getString("uuid");
+
+                if (ids.contains(id)) {
+                    statuses.put(id, object.isNull("status") ? "" : object.getString("status").toLowerCase());
+                }
+            }
+        });
+
+        if (!found) {
+            throw new CloudException("No " + kind + " endpoint found");
+        }
+        for (Waiter w : current) {
+            if (!w.kind.equals(kind)) {
+                continue;
+            }
+            String status = statuses.get(w.id);
+
+            if (status == null) {
+                w.gone = true;
+                w.complete();
+            } else {
+                w.status = status;
+                if (w.statuses.contains(status)) {
+                    w.complete();
+                }
+            }
+        }
+    }
+}
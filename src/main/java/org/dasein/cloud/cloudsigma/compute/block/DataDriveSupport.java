@@ -33,8 +33,11 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
+import org.dasein.cloud.cloudsigma.CloudSigmaListHandler;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
 import org.dasein.cloud.cloudsigma.NoContextException;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
+import org.dasein.cloud.cloudsigma.compute.vm.ServerSupport;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.util.uom.storage.*;
@@ -56,6 +59,11 @@ import java.util.*;
 public class DataDriveSupport extends AbstractVolumeSupport {
     static private final Logger logger = CloudSigma.getLogger(DataDriveSupport.class);
 
+    /**
+     * The fields {@link #toVolume(JSONObject, boolean)} reads, which are all a drive listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "name", "size", "status", "imaging", "affinities", "meta", "mounted_on" };
+
     private CloudSigma provider;
 
     public DataDriveSupport(@Nonnull CloudSigma provider) {
@@ -272,65 +280,56 @@ public class DataDriveSupport extends AbstractVolumeSupport {
 
     @Override
     public @Nonnull Iterable<Volume> listVolumes() throws InternalException, CloudException {
-        //dmayne 20130218: use JSON parsing
-        ArrayList<Volume> list = new ArrayList<Volume>();
+        final ArrayList<Volume> list = new ArrayList<Volume>();
+        final HashMap<String, JSONArray> mounts = new HashMap<String, JSONArray>();
         CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
-        boolean moreData = true;
-        String baseTarget = "/drives/detail/?limit=0";
-        String target = "";
+        //paging is no longer supported by the API so everything comes back in one response;
+        //stream it so only one drive at a time is held as a JSON tree
+        boolean found = method.stream(method.withFields("/drives/detail/?limit=0", LIST_FIELDS), new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject jVolume) throws CloudException, InternalException, JSONException {
+                //dmayne 20130522: check that we are looking at a volume
+                //(will not have an image_type attribute)
+                JSONObject metadata = jVolume.getJSONObject("meta");
+                String name = jVolume.getString("name");
+
+                if (!metadata.has("image_type") && !name.startsWith("esimg-")) {
+                    Volume volume = toVolume(jVolume, false);
+
+                    if (volume != null) {
+                        list.add(volume);
+                        if (jVolume.has("mounted_on") && jVolume.getJSONArray("mounted_on").length() > 0) {
+                            mounts.put(volume.getProviderVolumeId(), jVolume.getJSONArray("mounted_on"));
+                        }
+                    }
+                }
+            }
+        });
 
-        //while(moreData)  {    - commented out as it seems paging is no longer supported
-        //but who knows when the api will change back again
-            //dmayne 20130218: JSON Parsing
-            target = baseTarget+target;
+        if (!found) {
+            throw new CloudException("Could not identify drive endpoint for CloudSigma");
+        }
+        if (!mounts.isEmpty()) {
+            //index the servers once instead of looking up every server each drive is mounted on
+            HashMap<String, VirtualMachine> servers = new HashMap<String, VirtualMachine>();
 
+            for (VirtualMachine vm : provider.getComputeServices().getVirtualMachineSupport().listServers()) {
+                servers.put(vm.getProviderVirtualMachineId(), vm);
+            }
             try {
-                JSONObject json = method.list(target);
-
-                if (json == null) {
-                    throw new CloudException("Could not identify drive endpoint for CloudSigma");
-                }
-                if (json.has("objects")) {
-                    JSONArray objects = json.getJSONArray("objects");
-                    for (int i = 0; i < objects.length(); i++) {
-                        JSONObject jVolume = objects.getJSONObject(i);
-                        //dmayne 20130522: check that we are looking at a volume
-                        //(will not have an image_type attribute)
-                        JSONObject metadata = jVolume.getJSONObject("meta");
-                        String name = jVolume.getString("name");
-                        if (!metadata.has("image_type") && !name.startsWith("esimg-")) {
-                            Volume volume = toVolume(jVolume);
+                for (Volume volume : list) {
+                    JSONArray mountedOn = mounts.get(volume.getProviderVolumeId());
 
-                            if (volume != null) {
-                                list.add(volume);
-                            }
-                         }
+                    if (mountedOn != null) {
+                        setAttachment(volume, mountedOn, servers);
                     }
                 }
-
-                /*//dmayne 20130314: check if there are more pages     - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (json.has("meta")) {
-                    JSONObject meta = json.getJSONObject("meta");
-
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                } */
             }
             catch (JSONException e) {
                 throw new InternalException(e);
             }
-       // }
-
-
-
+        }
         return list;
     }
 
@@ -343,40 +342,77 @@ public class DataDriveSupport extends AbstractVolumeSupport {
     public void remove(@Nonnull String volumeId) throws InternalException, CloudException {
         Volume v = getVolume(volumeId);
 
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 5L);
+        if( v == null ) {
+            return;
+        }
+        StateWatcher watcher = provider.getStateWatcher();
 
-        while( timeout > System.currentTimeMillis() ) {
-            if( v == null ) {
+        if( VolumeState.PENDING.equals(v.getCurrentState()) ) {
+            //null means a listing confirmed the drive is gone; anything else still needs the DELETE
+            if( watcher.waitFor(StateWatcher.Kind.DRIVE, volumeId, CalendarWrapper.MINUTE * 5L, "mounted", "unmounted", "unavailable") == null ) {
                 return;
             }
-            if( !VolumeState.PENDING.equals(v.getCurrentState()) ) {
-                break;
-            }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-            try { v = getVolume(volumeId); }
-            catch( Throwable ignore ) { }
         }
         CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
         if (method.deleteString(toDriveURL(volumeId, ""), "") == null) {
             throw new CloudException("Unable to identify drives endpoint for removal");
         }
+        watcher.waitFor(StateWatcher.Kind.DRIVE, volumeId, CalendarWrapper.MINUTE * 5L, "unavailable");
+    }
 
-        timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 5L);
-        v = getVolume(volumeId);
-        while( timeout > System.currentTimeMillis() ) {
-            if( v == null || VolumeState.DELETED.equals(v.getCurrentState())) {
-                return;
+    /**
+     * Works out which server a volume is attached to, preferring a running server when the drive is mounted on
+     * more than one.
+     * @param volume the volume being populated
+     * @param mountedOn the <code>mounted_on</code> list of the drive
+     * @param servers the account's servers keyed by ID, or null to look up each server individually
+     * @throws CloudException an error occurred in CloudSigma looking up a server
+     * @throws InternalException an error occurred within Dasein Cloud
+     * @throws JSONException the mount list was not in the expected format
+     */
+    private void setAttachment(@Nonnull Volume volume, @Nonnull JSONArray mountedOn, @Nullable Map<String, VirtualMachine> servers) throws CloudException, InternalException, JSONException {
+        ServerSupport support = provider.getComputeServices().getVirtualMachineSupport();
+        String id = volume.getProviderVolumeId();
+        boolean found = false;
+
+        for (int i = 0; i < mountedOn.length(); i++) {
+            JSONObject server = mountedOn.getJSONObject(i);
+            String host = server.getString("uuid");
+            if (host != null && !host.equals("")) {
+                VirtualMachine vm = (servers == null ? support.getVirtualMachine(host) : servers.get(host));
+                String deviceId = null;
+                if (vm != null && !found) {
+                    //dmayne 20130314: set server to first found in case none of them are running
+                    found = true;
+                    volume.setProviderVirtualMachineId(host);
+                    deviceId = support.getDeviceId(vm, id);
+                    if (deviceId != null) {
+                        volume.setDeviceId(deviceId);
+                    }
+                }
+                if (vm != null && vm.getCurrentState().equals(VmState.RUNNING)) {
+                    volume.setProviderVirtualMachineId(host);
+                    deviceId = support.getDeviceId(vm, id);
+                    if (deviceId != null) {
+                        volume.setDeviceId(deviceId);
+                    }
+                    break;
+                }
             }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-            try { v = getVolume(volumeId); }
-            catch( Throwable ignore ) { }
         }
     }
 
     private @Nullable Volume toVolume(@Nullable JSONObject drive) throws CloudException, InternalException {
+        return toVolume(drive, true);
+    }
+
+    /**
+     * @param drive the drive JSON
+     * @param resolveAttachment true to look up the servers the drive is mounted on; listings pass false and
+     *                          resolve attachments against a single server listing instead
+     */
+    @Nullable Volume toVolume(@Nullable JSONObject drive, boolean resolveAttachment) throws CloudException, InternalException {
         if (drive == null) {
             return null;
         }
@@ -402,34 +438,8 @@ public class DataDriveSupport extends AbstractVolumeSupport {
                 volume.setProviderVolumeId(id);
             }
 
-            boolean found = false;
-            if (drive.has("mounted_on")) {
-                JSONArray servers = drive.getJSONArray("mounted_on");
-                for (int i = 0; i < servers.length(); i++) {
-                    JSONObject server = servers.getJSONObject(i);
-                    String host = server.getString("uuid");
-                    if (host != null && !host.equals("")) {
-                        VirtualMachine vm = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(host);
-                        String deviceId = null;
-                        if (vm != null && !found) {
-                            //dmayne 20130314: set server to first found in case none of them are running
-                            found = true;
-                            volume.setProviderVirtualMachineId(host);
-                            deviceId = provider.getComputeServices().getVirtualMachineSupport().getDeviceId(vm, id);
-                            if (deviceId != null) {
-                                volume.setDeviceId(deviceId);
-                            }
-                        }
-                        if (vm != null && vm.getCurrentState().equals(VmState.RUNNING)) {
-                            volume.setProviderVirtualMachineId(host);
-                            deviceId = provider.getComputeServices().getVirtualMachineSupport().getDeviceId(vm, id);
-                            if (deviceId != null) {
-                                volume.setDeviceId(deviceId);
-                            }
-                            break;
-                        }
-                    }
-                }
+            if (drive.has("mounted_on") && resolveAttachment) {
+                setAttachment(volume, drive.getJSONArray("mounted_on"), null);
             }
 
             String name = drive.getString("name");
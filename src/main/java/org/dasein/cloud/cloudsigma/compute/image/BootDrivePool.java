@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.compute.image;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.CloudSigmaListHandler;
+import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
+import org.dasein.util.CalendarWrapper;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A warm pool of boot drives cloned ahead of time from the machine images being launched. A launch takes a ready
+ * drive from the pool instead of waiting for a clone, and the pool is refilled on the provider's background executor.
+ * Pooled drives are named after their image so drives left behind by an earlier provider instance are adopted again
+ * the first time their image is launched. The pool is off unless a size has been configured for it.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class BootDrivePool {
+    static private final Logger logger = CloudSigma.getLogger(BootDrivePool.class);
+
+    /**
+     * Custom property for the number of ready drives to keep for each launched image (default 0, disabled).
+     */
+    static public final String SIZE = "bootDrivePoolSize";
+
+    /**
+     * The prefix of the name given to every pooled drive, followed by the ID of the image it was cloned from.
+     */
+    static public final String NAME_PREFIX = "dasein-pool-";
+
+    static private final long CLONE_TIMEOUT = CalendarWrapper.MINUTE * 40L;
+
+    private final CloudSigma                      provider;
+    private final Map<String, LinkedList<String>> ready = new HashMap<String, LinkedList<String>>();
+    private final Map<String, Integer>            filling = new HashMap<String, Integer>();
+    private final Set<String>                     adopted = new HashSet<String>();
+    private volatile boolean                      closed = false;
+
+    public BootDrivePool(@Nonnull CloudSigma provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return the number of ready drives kept for each launched image
+     */
+    public int getSize() {
+        return (int) Math.max(0L, provider.getLongProperty(SIZE, 0L));
+    }
+
+    public boolean isEnabled() {
+        return (!closed && getSize() > 0);
+    }
+
+    /**
+     * @param imageId the machine image
+     * @return the number of drives for the image that are ready to be taken
+     */
+    public synchronized int getReadyCount(@Nonnull String imageId) {
+        LinkedList<String> drives = ready.get(imageId);
+
+        return (drives == null ? 0 : drives.size());
+    }
+
+    /**
+     * Takes a ready drive cloned from the specified image out of the pool and renames it for its new server. A drive
+     * that cannot be renamed is skipped, since it would still look like a pooled drive to other providers. The pool
+     * is refilled in the background.
+     * @param imageId the machine image being launched
+     * @param name the name for the drive
+     * @return an unmounted drive cloned from the image as CloudSigma currently describes it, or null if none is ready
+     * @throws CloudException an error occurred checking the pool
+     * @throws InternalException an error occurred parsing the response
+     */
+    public @Nullable JSONObject take(@Nonnull String imageId, @Nonnull String name) throws CloudException, InternalException {
+        if (!isEnabled()) {
+            return null;
+        }
+        adopt(imageId);
+        try {
+            CloudSigmaMethod method = new CloudSigmaMethod(provider).fresh();
+            String driveId;
+
+            while ((driveId = poll(imageId)) != null) {
+                String body = method.getString(toDriveURL(driveId));
+
+                if (body == null) {
+                    logger.warn("Pooled drive " + driveId + " no longer exists");
+                    continue;
+                }
+                JSONObject drive = new JSONObject(body);
+
+                if (!isFree(drive)) {
+                    logger.warn("Pooled drive " + driveId + " is no longer available");
+                    continue;
+                }
+                JSONObject update = new JSONObject();
+
+                update.put("name", name.replaceAll("\n", " "));
+                update.put("size", drive.get("size"));
+                update.put("media", drive.get("media"));
+                try {
+                    if (method.putString(toDriveURL(driveId), update.toString()) == null) {
+                        logger.warn("Pooled drive " + driveId + " no longer exists");
+                        continue;
+                    }
+                } catch (CloudException e) {
+                    //still named for the pool, so another provider could adopt it before it is mounted
+                    logger.warn("Unable to rename pooled drive " + driveId + ", skipping it: " + e.getMessage());
+                    continue;
+                }
+                if (logger.isInfoEnabled()) {
+                    logger.info("Took drive " + driveId + " from the pool for " + imageId);
+                }
+                return drive;
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info("No pooled drive is ready for " + imageId);
+            }
+            return null;
+        } catch (JSONException e) {
+            throw new InternalException(e);
+        } finally {
+            refill(imageId);
+        }
+    }
+
+    /**
+     * Starts cloning drives for the specified image until the pool for it is full, so that the first launches of the
+     * image do not have to wait for a clone.
+     * @param imageId the machine image to warm the pool for
+     * @throws CloudException an error occurred listing existing pooled drives
+     * @throws InternalException an error occurred parsing the response
+     */
+    public void warm(@Nonnull String imageId) throws CloudException, InternalException {
+        if (!isEnabled()) {
+            return;
+        }
+        adopt(imageId);
+        refill(imageId);
+    }
+
+    /**
+     * Stops refilling the pool. Drives already in the pool are left in place and adopted by the next pool.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            ready.clear();
+            adopted.clear();
+        }
+    }
+
+    private synchronized @Nullable String poll(@Nonnull String imageId) {
+        LinkedList<String> drives = ready.get(imageId);
+
+        return (drives == null ? null : drives.poll());
+    }
+
+    private synchronized void add(@Nonnull String imageId, @Nonnull String driveId) {
+        LinkedList<String> drives = ready.get(imageId);
+
+        if (drives == null) {
+            drives = new LinkedList<String>();
+            ready.put(imageId, drives);
+        }
+        if (!drives.contains(driveId)) {
+            drives.add(driveId);
+        }
+    }
+
+    private synchronized void filled(@Nonnull String imageId) {
+        Integer count = filling.get(imageId);
+
+        if (count == null || count <= 1) {
+            filling.remove(imageId);
+        } else {
+            filling.put(imageId, count - 1);
+        }
+    }
+
+    private void adopt(@Nonnull final String imageId) throws CloudException, InternalException {
+        synchronized (this) {
+            if (!adopted.add(imageId)) {
+                return;
+            }
+        }
+        final String poolName = NAME_PREFIX + imageId;
+
+        new CloudSigmaMethod(provider).stream("/drives/detail/?limit=0", new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject drive) throws CloudException, InternalException, JSONException {
+                if (poolName.equals(drive.optString("name")) && isFree(drive)) {
+                    add(imageId, drive.getString("uuid"));
+                }
+            }
+        });
+        if (logger.isDebugEnabled()) {
+            logger.debug("Adopted " + getReadyCount(imageId) + " pooled drives for " + imageId);
+        }
+    }
+
+    private void refill(@Nonnull final String imageId) {
+        int needed;
+
+        synchronized (this) {
+            if (!isEnabled()) {
+                return;
+            }
+            Integer count = filling.get(imageId);
+            int inFlight = (count == null ? 0 : count);
+
+            needed = getSize() - getReadyCount(imageId) - inFlight;
+            if (needed > 0) {
+                filling.put(imageId, inFlight + needed);
+            }
+        }
+        for (int i = 0; i < needed; i++) {
+            try {
+                provider.getExecutor().submit("Fill boot drive pool for " + imageId, new Runnable() {
+                    public void run() {
+                        fill(imageId);
+                    }
+                });
+            } catch (CloudException e) {
+                logger.warn("Unable to schedule a pooled clone of " + imageId + ": " + e.getMessage());
+                filled(imageId);
+            }
+        }
+    }
+
+    private void fill(@Nonnull final String imageId) {
+        if (closed) {
+            filled(imageId);
+            return;
+        }
+        try {
+            BootDriveSupport support = provider.getComputeServices().getImageSupport();
+            JSONObject result = support.cloneDrive(imageId, NAME_PREFIX + imageId, null);
+            JSONArray objects = result.getJSONArray("objects");
+            JSONObject drive = objects.getJSONObject(0);
+            final String driveId = drive.getString("uuid");
+
+            if ("unmounted".equals(drive.optString("status"))) {
+                add(imageId, driveId);
+                filled(imageId);
+                return;
+            }
+            provider.getStateWatcher().watch(StateWatcher.Kind.DRIVE, driveId, CLONE_TIMEOUT, new StateWatcher.Listener() {
+                public void finished(@Nullable String status) {
+                    if ("unmounted".equals(status)) {
+                        add(imageId, driveId);
+                    } else {
+                        logger.warn("Pooled clone " + driveId + " of " + imageId + " did not become ready: " + status);
+                    }
+                    filled(imageId);
+                }
+            }, "unmounted");
+        } catch (Throwable t) {
+            logger.error("Unable to clone a pooled drive from " + imageId + ": " + t.getMessage());
+            filled(imageId);
+        }
+    }
+
+    private boolean isFree(@Nonnull JSONObject drive) throws JSONException {
+        if (!"unmounted".equals(drive.optString("status"))) {
+            return false;
+        }
+        JSONArray mounts = drive.optJSONArray("mounted_on");
+
+        return (mounts == null || mounts.length() == 0);
+    }
+
+    private @Nonnull String toDriveURL(@Nonnull String driveId) throws InternalException {
+        try {
+            return ("/drives/" + URLEncoder.encode(driveId, "utf-8") + "/");
+        } catch (UnsupportedEncodingException e) {
+            logger.error("UTF-8 not supported: " + e.getMessage());
+            throw new InternalException(e);
+        }
+    }
+}
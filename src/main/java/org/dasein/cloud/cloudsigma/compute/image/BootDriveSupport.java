@@ -34,8 +34,12 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
+import org.dasein.cloud.cloudsigma.CloudSigmaListHandler;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
+import org.dasein.cloud.cloudsigma.OperationTrace;
 import org.dasein.cloud.cloudsigma.NoContextException;
+import org.dasein.cloud.cloudsigma.PagedListing;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
 import org.dasein.util.uom.storage.Storage;
 
 import javax.annotation.Nonnull;
@@ -43,8 +47,13 @@ import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Maps CloudSigma drives to the concept of machine images. While there's a fairly huge disconnect between the
@@ -59,6 +68,12 @@ import java.util.Locale;
 public class BootDriveSupport extends AbstractImageSupport {
     static private final Logger logger = CloudSigma.getLogger(BootDriveSupport.class);
 
+    /**
+     * The fields {@link #toMachineImage(JSONObject)} and {@link #toPublicMachineImage(JSONObject)} read, which are all
+     * a drive or library drive listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "name", "size", "status", "imaging", "media", "meta", "owner", "licenses", "image_type", "os", "arch", "description", "install_notes" };
+
     private CloudSigma provider;
 
     public BootDriveSupport(@Nonnull CloudSigma provider) {
@@ -149,6 +164,58 @@ public class BootDriveSupport extends AbstractImageSupport {
         }
     }
 
+    /**
+     * Resolves the platforms of many drives at once. Private drives are matched from a single drive listing and
+     * only drives not found there are looked for in a single library listing, so the cost is at most two requests
+     * however many drives are asked for.
+     * @param driveIds the drives whose platforms are needed
+     * @return the platform of each drive that could be found, keyed by drive ID
+     * @throws CloudException an error occurred in CloudSigma listing drives
+     * @throws InternalException an error occurred within Dasein Cloud
+     */
+    public @Nonnull Map<String, Platform> getPlatforms(@Nonnull Collection<String> driveIds) throws CloudException, InternalException {
+        final HashMap<String, Platform> platforms = new HashMap<String, Platform>();
+        final HashSet<String> missing = new HashSet<String>(driveIds);
+
+        if (missing.isEmpty()) {
+            return platforms;
+        }
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        method.stream(method.withFields("/drives/detail/?limit=0", LIST_FIELDS), new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject drive) throws CloudException, InternalException, JSONException {
+                //dmayne 20130529: library drive can be returned in the drive listing
+                //so only trust drives with an owner here, just like getDrive()
+                if (drive.has("owner") && !drive.isNull("owner")) {
+                    addPlatform(drive, missing, platforms);
+                }
+            }
+        });
+        if (!missing.isEmpty()) {
+            logger.debug(missing.size() + " drives not found in account, looking in library...");
+            method.stream(method.withFields("/libdrives/detail/?limit=0", LIST_FIELDS), new CloudSigmaListHandler() {
+                @Override
+                public void handle(@Nonnull JSONObject drive) throws CloudException, InternalException, JSONException {
+                    addPlatform(drive, missing, platforms);
+                }
+            });
+        }
+        return platforms;
+    }
+
+    private void addPlatform(@Nonnull JSONObject drive, @Nonnull Set<String> missing, @Nonnull Map<String, Platform> platforms) throws CloudException, InternalException, JSONException {
+        String id = drive.getString("uuid");
+
+        if (missing.remove(id)) {
+            MachineImage img = toMachineImage(drive);
+
+            if (img != null) {
+                platforms.put(id, img.getPlatform());
+            }
+        }
+    }
+
     @Override
     public void addImageShare(@Nonnull String providerImageId, @Nonnull String accountNumber) throws CloudException, InternalException {
         throw new OperationNotSupportedException("No ability to share images");
@@ -171,6 +238,8 @@ public class BootDriveSupport extends AbstractImageSupport {
 
     @Override
     protected @Nonnull MachineImage capture(@Nonnull ImageCreateOptions options, @Nullable AsynchronousTask<MachineImage> task) throws CloudException, InternalException {
+        OperationTrace trace = OperationTrace.begin(provider, "capture", options.getVirtualMachineId());
+
         try {
             if( task != null ) {
                 task.setStartTime(System.currentTimeMillis());
@@ -178,25 +247,19 @@ public class BootDriveSupport extends AbstractImageSupport {
             VirtualMachine vm;
             boolean restart = false;
 
+            trace.phase("lookup");
             vm = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(options.getVirtualMachineId());
             if (vm == null) {
                 throw new CloudException("Virtual machine not found: " + options.getVirtualMachineId());
             }
             if (!VmState.STOPPED.equals(vm.getCurrentState())) {
                 restart = true;
+                trace.phase("stop");
                 provider.getComputeServices().getVirtualMachineSupport().stop(options.getVirtualMachineId());
+                trace.phase("stop wait");
                 try {
-                    long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-                    vm = null;
-                    while (timeout > System.currentTimeMillis()) {
-                        vm =  provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(options.getVirtualMachineId());
-                        if (vm.getCurrentState().equals(VmState.STOPPED)) {
-                            System.out.println("Server stopped");
-                            break;
-                        }
-                        try { Thread.sleep(15000L); }
-                        catch( InterruptedException ignore ) { }
-                    }
+                    provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, options.getVirtualMachineId(), CalendarWrapper.MINUTE * 10L, "stopped");
+                    vm =  provider.getComputeServices().getVirtualMachineSupport().getVirtualMachine(options.getVirtualMachineId());
                 }
                 catch (Throwable ignore) {
                 }
@@ -205,6 +268,7 @@ public class BootDriveSupport extends AbstractImageSupport {
 
             try {
                 if (driveId != null) {
+                    trace.phase("drive clone");
                     JSONObject object = cloneDrive(driveId, options.getName(), vm.getPlatform());
 
                     String id = null;
@@ -216,6 +280,7 @@ public class BootDriveSupport extends AbstractImageSupport {
                     MachineImage img = null;
 
                     if (id != null) {
+                        trace.phase("image lookup");
                         img = getImage(id);
                     }
                     if (img == null) {
@@ -224,6 +289,7 @@ public class BootDriveSupport extends AbstractImageSupport {
                     if( task != null ) {
                         task.completeWithResult(img);
                     }
+                    trace.succeeded();
                     return img;
                 }
                 else {
@@ -235,6 +301,7 @@ public class BootDriveSupport extends AbstractImageSupport {
             }
             finally {
                 if (restart) {
+                    trace.phase("restart");
                     try {
                         provider.getComputeServices().getVirtualMachineSupport().start(options.getVirtualMachineId());
                     } catch (Throwable ignore) {
@@ -243,6 +310,7 @@ public class BootDriveSupport extends AbstractImageSupport {
                 }
             }
         } finally {
+            trace.end();
             provider.release();
         }
     }
@@ -373,80 +441,50 @@ public class BootDriveSupport extends AbstractImageSupport {
     }
 
     @Override
-    public @Nonnull Iterable<MachineImage> listImages(@Nullable ImageFilterOptions options) throws CloudException, InternalException {
+    public @Nonnull Iterable<MachineImage> listImages(@Nullable final ImageFilterOptions options) throws CloudException, InternalException {
         if( options != null && !ImageClass.MACHINE.equals(options.getImageClass()) ) {
             return Collections.emptyList();
         }
-        ArrayList<MachineImage> matches = new ArrayList<MachineImage>();
-        String me = getContext().getAccountNumber();
+        final ArrayList<MachineImage> matches = new ArrayList<MachineImage>();
+        final String me = getContext().getAccountNumber();
         CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
-        boolean moreData = true;
-        String baseTarget = "/drives/detail/?limit=0";
-        String target = "";
-
-       // while(moreData)  {         - commented out as it seems paging is no longer supported
-        //but who knows when the api will change back again
-            //dmayne 20130218: JSON Parsing
-            target = baseTarget+target;
-
-            JSONObject jObject = method.list(target);
-
-            try {
-                if (jObject == null) {
-                    throw new CloudException("Could not identify drive endpoint for CloudSigma");
-                }
-                if (jObject.has("objects")){
-                    JSONArray objects = jObject.getJSONArray("objects");
-                    for (int i = 0; i < objects.length(); i++) {
-                        JSONObject jImage = objects.getJSONObject(i);
-                        //dmayne 20130522: check that we are looking at an image
-                        //(will have an image_type attribute)
-                        JSONObject metadata = jImage.getJSONObject("meta");
-                        String name = jImage.getString("name");
-                    if (metadata.has("image_type") || name.startsWith("esimg-")) {
-                            String id = null;
-                            if (jImage.has("owner")) {
-                                JSONObject owner = jImage.getJSONObject("owner");
-                                if (owner != null && owner.has("uuid")){
-                                    id = owner.getString("uuid");
-                                }
-                            }
-
-                            if (id != null && id.trim().equals("")) {
-                                id = null;
-                            }
-                            if (me.equals(id)) {
-                                MachineImage img = toMachineImage(jImage);
-    
-                                if( img != null && (options == null || options.matches(img)) ) {
-                                    matches.add(img);
-                                }
-                            }   
+        //paging is no longer supported by the API so everything comes back in one response;
+        //stream it so only one drive at a time is held as a JSON tree
+        boolean found = method.stream(method.withFields("/drives/detail/?limit=0", LIST_FIELDS), new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject jImage) throws CloudException, InternalException, JSONException {
+                //dmayne 20130522: check that we are looking at an image
+                //(will have an image_type attribute)
+                JSONObject metadata = jImage.getJSONObject("meta");
+                String name = jImage.getString("name");
+
+                if (metadata.has("image_type") || name.startsWith("esimg-")) {
+                    String id = null;
+                    if (jImage.has("owner")) {
+                        JSONObject owner = jImage.getJSONObject("owner");
+                        if (owner != null && owner.has("uuid")){
+                            id = owner.getString("uuid");
                         }
                     }
-                }
 
-               /* //dmayne 20130314: check if there are more pages      - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (jObject.has("meta")) {
-                    JSONObject meta = jObject.getJSONObject("meta");
-
-
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
+                    if (id != null && id.trim().equals("")) {
+                        id = null;
                     }
-                    else  {
-                        moreData = false;
+                    if (me.equals(id)) {
+                        MachineImage img = toMachineImage(jImage);
+
+                        if( img != null && (options == null || options.matches(img)) ) {
+                            matches.add(img);
+                        }
                     }
-                }   */
-            }
-            catch (JSONException e) {
-                throw new InternalException(e);
+                }
             }
-       // }
+        });
+
+        if (!found) {
+            throw new CloudException("Could not identify drive endpoint for CloudSigma");
+        }
         return matches;
     }
 
@@ -463,63 +501,18 @@ public class BootDriveSupport extends AbstractImageSupport {
         } else if (accountId == null || accountId.equals("")) {
             accountId = "00000000-0000-0000-0000-000000000001";
         }
-        ArrayList<MachineImage> list = new ArrayList<MachineImage>();
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        boolean moreData = true;
-        String baseTarget = "/libdrives/detail/?limit=0";
-        String target = "";
-
-       // while(moreData)  {          - commented out as it seems paging is no longer supported
-       // but who knows when the api will change back again
-            //dmayne 20130218: JSON Parsing
-            target = baseTarget+target;
-
-            JSONObject jObj = method.list(target);
-            try{
-                if (jObj == null) {
-                    throw new CloudException("Could not identify drive endpoint for CloudSigma");
+        final String owner = accountId;
+
+        return new PagedListing<MachineImage>(provider, "/libdrives/detail/", new PagedListing.Converter<MachineImage>() {
+            @Override
+            public @Nullable MachineImage convert(@Nonnull JSONObject jImage) throws CloudException, InternalException, JSONException {
+                String id = null;
+                if (jImage.has("owner") && jImage.isNull("owner")) {
+                    id = "00000000-0000-0000-0000-000000000001";
                 }
-
-                if (jObj.has("objects")){
-                    JSONArray objects = jObj.getJSONArray("objects");
-                    for (int i = 0; i < objects.length(); i++) {
-                        JSONObject jImage = objects.getJSONObject(i);
-                        String id = null;
-                        if (jImage.has("owner") && jImage.isNull("owner")) {
-                            id = "00000000-0000-0000-0000-000000000001";
-                        }
-                        if (accountId.equals(id)) {
-                            MachineImage img = toPublicMachineImage(jImage);
-
-                            if( img != null ) {
-                                list.add(img);
-                            }
-                        }
-                    }
-                }
-
-               /* //dmayne 20130314: check if there are more pages    - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (jObj.has("meta")) {
-                    JSONObject meta = jObj.getJSONObject("meta");
-
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                }   */
+                return (owner.equals(id) ? toPublicMachineImage(jImage) : null);
             }
-            catch (JSONException e) {
-                throw new InternalException(e);
-            }
-       // }
-
-        return list;
+        }, LIST_FIELDS);
     }
 
     @Override
@@ -647,66 +640,27 @@ public class BootDriveSupport extends AbstractImageSupport {
     }
 
     @Override
-    public @Nonnull Iterable<MachineImage> searchPublicImages(@Nonnull ImageFilterOptions options) throws InternalException, CloudException {
+    public @Nonnull Iterable<MachineImage> searchPublicImages(@Nonnull final ImageFilterOptions options) throws InternalException, CloudException {
         if (options.getImageClass() != null && !ImageClass.MACHINE.equals(options.getImageClass()) ) {
             return Collections.emptyList();
         }
-        ArrayList<MachineImage> matches = new ArrayList<MachineImage>();
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        boolean moreData = true;
-        String baseTarget = "/libdrives/detail/?limit=0";
-        String target = "";
-
-      //  while(moreData)  {          - commented out as it seems paging is no longer supported
-       // but who knows when the api will change back again
-            target = baseTarget+target;
-
-            JSONObject jObject = method.list(target);
-
-            try {
-                if (jObject == null) {
-                    throw new CloudException("Could not identify drive endpoint for CloudSigma");
+        return new PagedListing<MachineImage>(provider, "/libdrives/detail/", new PagedListing.Converter<MachineImage>() {
+            @Override
+            public @Nullable MachineImage convert(@Nonnull JSONObject jImage) throws CloudException, InternalException, JSONException {
+                String id = null;
+                if (jImage.has("owner") && jImage.isNull("owner")) {
+                    id = "00000000-0000-0000-0000-000000000001";
                 }
-                if (jObject.has("objects")){
-                    JSONArray objects = jObject.getJSONArray("objects");
-                    for (int i = 0; i < objects.length(); i++) {
-                        JSONObject jImage = objects.getJSONObject(i);
-                        String id = null;
-                        if (jImage.has("owner") && jImage.isNull("owner")) {
-                            id = "00000000-0000-0000-0000-000000000001";
-                        }
-                        if( id == null || id.equals("00000000-0000-0000-0000-000000000001") ) {
-                            MachineImage img = toPublicMachineImage(jImage);
+                if( id == null || id.equals("00000000-0000-0000-0000-000000000001") ) {
+                    MachineImage img = toPublicMachineImage(jImage);
 
-                            if( img != null && options.matches(img) ) {
-                                matches.add(img);
-                            }
-                        }
+                    if( img != null && options.matches(img) ) {
+                        return img;
                     }
                 }
-
-                /*//dmayne 20130314: check if there are more pages        - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (jObject.has("meta")) {
-                    JSONObject meta = jObject.getJSONObject("meta");
-
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                } */
-            }
-            catch (JSONException e) {
-                throw new InternalException(e);
+                return null;
             }
-      //  }
-
-        return matches;
+        }, LIST_FIELDS);
     }
 
     @Override
@@ -739,7 +693,7 @@ public class BootDriveSupport extends AbstractImageSupport {
         return true;
     }
 
-    private @Nullable MachineImage toMachineImage(@Nullable JSONObject drive) throws CloudException, InternalException {
+    @Nullable MachineImage toMachineImage(@Nullable JSONObject drive) throws CloudException, InternalException {
         if (drive == null) {
             logger.debug("drive is null");
             return null;
@@ -940,7 +894,7 @@ public class BootDriveSupport extends AbstractImageSupport {
         }
     }
 
-    private @Nullable MachineImage toPublicMachineImage(@Nullable JSONObject drive) throws CloudException, InternalException {
+    @Nullable MachineImage toPublicMachineImage(@Nullable JSONObject drive) throws CloudException, InternalException {
         if (drive == null) {
             logger.debug("drive is null");
             return null;
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.compute.vm;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.OperationTrace;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A virtual machine launch in progress. Each phase of the launch runs as a short task on the provider's background
+ * executor and the waits between phases are handed to the provider's state watcher, so no thread is held while the
+ * boot drive clones or the server settles.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class LaunchOperation implements Future<VirtualMachine> {
+    static private final Logger logger = CloudSigma.getLogger(LaunchOperation.class);
+
+    public enum Phase { CLONING, WAITING_FOR_DRIVE, CREATING, WAITING_FOR_SERVER, DONE }
+
+    private final CloudSigma      provider;
+    private final ServerSupport   support;
+    private final VMLaunchOptions options;
+    private final CountDownLatch  latch = new CountDownLatch(1);
+    private final OperationTrace  trace;
+
+    private volatile Phase          phase = Phase.CLONING;
+    private volatile VirtualMachine result;
+    private volatile Throwable      error;
+    private volatile boolean        cancelled = false;
+
+    LaunchOperation(@Nonnull CloudSigma provider, @Nonnull ServerSupport support, @Nonnull VMLaunchOptions options) {
+        this.provider = provider;
+        this.support = support;
+        this.options = options;
+        this.trace = new OperationTrace(provider, "launch", null);
+        trace.phase(toPhaseName(phase));
+    }
+
+    static private @Nonnull String toPhaseName(@Nonnull Phase phase) {
+        return phase.name().toLowerCase().replace('_', ' ');
+    }
+
+    void begin() throws CloudException {
+        provider.getExecutor().submit("Launch " + options.getHostName(), new Runnable() {
+            public void run() {
+                OperationTrace previous = trace.attach();
+
+                try {
+                    cloneDrive();
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    OperationTrace.restore(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the phase the launch is currently in
+     */
+    public @Nonnull Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the timing of the phases the launch has gone through so far
+     */
+    public @Nonnull OperationTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * @return the launch options this operation was created with
+     */
+    public @Nonnull VMLaunchOptions getOptions() {
+        return options;
+    }
+
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        phase = Phase.DONE;
+        latch.countDown();
+        trace.end();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return (latch.getCount() == 0);
+    }
+
+    @Override
+    public VirtualMachine get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getResult();
+    }
+
+    @Override
+    public VirtualMachine get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("Launch of " + options.getHostName() + " still in phase " + phase);
+        }
+        return getResult();
+    }
+
+    private @Nonnull VirtualMachine getResult() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException("Launch of " + options.getHostName() + " was cancelled");
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    private void cloneDrive() throws CloudException, InternalException {
+        MachineImage img = support.getLaunchImage(options);
+        JSONObject drive = support.cloneBootDrive(options, img);
+
+        if (drive == null) {
+            createServer(img.getProviderMachineImageId());
+            return;
+        }
+        final String driveId;
+        String status;
+
+        try {
+            driveId = drive.getString("uuid");
+            status = drive.getString("status");
+        } catch (JSONException e) {
+            throw new InternalException(e);
+        }
+        if (ServerSupport.isDriveReady(status)) {
+            createServer(driveId);
+            return;
+        }
+        if (support.isPipelinedLaunch()) {
+            createServerDuringClone(driveId);
+            return;
+        }
+        if (!advance(Phase.WAITING_FOR_DRIVE)) {
+            return;
+        }
+        provider.getStateWatcher().watch(StateWatcher.Kind.DRIVE, driveId, ServerSupport.DRIVE_TIMEOUT, new StateWatcher.Listener() {
+            public void finished(@Nullable String status) {
+                OperationTrace previous = trace.attach();
+
+                try {
+                    if (!ServerSupport.isDriveReady(status)) {
+                        throw new CloudException(status == null ? "Cloned drive has disappeared" : "Cloned drive " + driveId + " did not become ready: " + status);
+                    }
+                    createServer(driveId);
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    OperationTrace.restore(previous);
+                }
+            }
+        }, ServerSupport.DRIVE_READY_STATUSES);
+    }
+
+    private void createServerDuringClone(@Nonnull final String driveId) throws CloudException, InternalException {
+        if (!advance(Phase.CREATING)) {
+            return;
+        }
+        final JSONObject server = support.postServer(support.toServerJson(options, options.getHostName(), null));
+
+        if (!advance(Phase.WAITING_FOR_DRIVE)) {
+            abandon(server, driveId);
+            return;
+        }
+        provider.getStateWatcher().watch(StateWatcher.Kind.DRIVE, driveId, ServerSupport.DRIVE_TIMEOUT, new StateWatcher.Listener() {
+            public void finished(@Nullable String status) {
+                OperationTrace previous = trace.attach();
+
+                try {
+                    if (!ServerSupport.isDriveReady(status)) {
+                        support.discardServer(server);
+                        throw new CloudException(status == null ? "Cloned drive has disappeared" : "Cloned drive " + driveId + " did not become ready: " + status);
+                    }
+                    if (!advance(Phase.CREATING)) {
+                        abandon(server, driveId);
+                        return;
+                    }
+                    VirtualMachine vm;
+
+                    try {
+                        vm = support.attachBootDrive(server, driveId);
+                    } catch (CloudException e) {
+                        support.discardServer(server);
+                        throw e;
+                    } catch (InternalException e) {
+                        support.discardServer(server);
+                        throw e;
+                    }
+                    waitForServer(vm);
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    OperationTrace.restore(previous);
+                }
+            }
+        }, ServerSupport.DRIVE_READY_STATUSES);
+    }
+
+    /**
+     * Removes the server and cloned drive of a launch that was cancelled after both were created.
+     * @param server the server created ahead of its boot drive
+     * @param driveId the cloned boot drive
+     */
+    private void abandon(@Nonnull JSONObject server, @Nonnull String driveId) {
+        support.discardServer(server);
+        support.discardDrive(driveId);
+    }
+
+    private void createServer(@Nonnull String driveId) throws CloudException, InternalException {
+        if (!advance(Phase.CREATING)) {
+            return;
+        }
+        waitForServer(support.createServer(options, driveId));
+    }
+
+    private void waitForServer(@Nonnull VirtualMachine vm) throws CloudException {
+        if (VmState.STOPPED.equals(vm.getCurrentState()) || VmState.RUNNING.equals(vm.getCurrentState())) {
+            succeed(support.finishLaunch(vm));
+            return;
+        }
+        if (!advance(Phase.WAITING_FOR_SERVER)) {
+            return;
+        }
+        final String vmId = vm.getProviderVirtualMachineId();
+        final VirtualMachine created = vm;
+
+        provider.getStateWatcher().watch(StateWatcher.Kind.SERVER, vmId, ServerSupport.SERVER_TIMEOUT, new StateWatcher.Listener() {
+            public void finished(@Nullable String status) {
+                OperationTrace previous = trace.attach();
+
+                try {
+                    VirtualMachine current = created;
+
+                    try {
+                        current = support.getVirtualMachine(vmId);
+                    } catch (Exception e) {
+                        logger.warn("Unable to load " + vmId + " after waiting for state change: " + e.getMessage());
+                    }
+                    succeed(support.finishLaunch(current));
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    OperationTrace.restore(previous);
+                }
+            }
+        }, support.toStatuses(new VmState[] { VmState.STOPPED, VmState.RUNNING }));
+    }
+
+    private synchronized boolean advance(@Nonnull Phase next) {
+        if (isDone()) {
+            if (logger.isInfoEnabled()) {
+                logger.info("Launch of " + options.getHostName() + " was cancelled before " + next);
+            }
+            return false;
+        }
+        phase = next;
+        trace.phase(toPhaseName(next));
+        return true;
+    }
+
+    private synchronized void succeed(@Nonnull VirtualMachine vm) {
+        if (isDone()) {
+            return;
+        }
+        result = vm;
+        phase = Phase.DONE;
+        latch.countDown();
+        trace.setResourceId(vm.getProviderVirtualMachineId());
+        trace.succeeded();
+        trace.end();
+    }
+
+    private synchronized void fail(@Nonnull Throwable t) {
+        if (isDone()) {
+            return;
+        }
+        logger.error("Launch of " + options.getHostName() + " failed during " + phase + ": " + t.getMessage());
+        error = t;
+        phase = Phase.DONE;
+        latch.countDown();
+        trace.end();
+    }
+}
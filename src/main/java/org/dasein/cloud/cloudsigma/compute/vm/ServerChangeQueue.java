@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.compute.vm;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.dasein.cloud.cloudsigma.OperationTrace;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Combines concurrent edits to the same server into a single update. An edit to a server with no update in progress
+ * is written straight away. Every edit submitted while an earlier update of that server is in progress joins the next
+ * batch, which stays open until that update finishes and then reads the server once, applies each edit to the
+ * definition in turn and writes it back with one PUT and at most one stop and start. Batches for the same server run
+ * one after another so changes never overwrite each other.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class ServerChangeQueue {
+    static private final Logger logger = CloudSigma.getLogger(ServerChangeQueue.class);
+
+    /**
+     * A change to the definition of a server. Edits should check everything they need before modifying the server
+     * so that a failed edit does not leave a partial change for the rest of its batch.
+     */
+    public interface Edit {
+        /**
+         * Applies this change to the current definition of the server.
+         * @param server the server definition, which is written back once every edit in the batch has been applied
+         * @throws CloudException the change cannot be made to this server
+         * @throws InternalException the change could not be built
+         * @throws JSONException the server definition could not be read
+         */
+        public void apply(@Nonnull JSONObject server) throws CloudException, InternalException, JSONException;
+    }
+
+    static private class Entry {
+        private final Edit edit;
+        private Throwable  error;
+
+        private Entry(@Nonnull Edit edit) {
+            this.edit = edit;
+        }
+    }
+
+    static private class Batch {
+        private final String           vmId;
+        private final List<Entry>      entries = new ArrayList<Entry>();
+        private final CountDownLatch   done = new CountDownLatch(1);
+        private Batch                  previous;
+        private boolean                open = true;
+
+        private Batch(@Nonnull String vmId, @Nullable Batch previous) {
+            this.vmId = vmId;
+            this.previous = previous;
+        }
+    }
+
+    private final CloudSigma         provider;
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private boolean                  closed = false;
+
+    public ServerChangeQueue(@Nonnull CloudSigma provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Submits an edit to a server and waits until it has been written along with any other edits in its batch.
+     * @param vmId the server to change
+     * @param edit the change to make
+     * @throws CloudException the server does not exist, the edit failed or the update was rejected
+     * @throws InternalException the edit or update could not be built
+     */
+    public void submit(@Nonnull String vmId, @Nonnull Edit edit) throws CloudException, InternalException {
+        Entry entry = new Entry(edit);
+        boolean leader = false;
+        Batch batch;
+
+        synchronized (this) {
+            if (closed) {
+                throw new CloudException("Changes to " + vmId + " are no longer accepted because the provider is closed");
+            }
+            batch = batches.get(vmId);
+            if (batch == null || !batch.open) {
+                batch = new Batch(vmId, batch);
+                batches.put(vmId, batch);
+                leader = true;
+            }
+            batch.entries.add(entry);
+        }
+        if (leader) {
+            run(batch);
+        } else {
+            try {
+                batch.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudException("Interrupted waiting for changes to " + vmId);
+            }
+        }
+        Throwable t = entry.error;
+
+        if (t == null) {
+            return;
+        }
+        if (t instanceof CloudException) {
+            throw (CloudException) t;
+        }
+        if (t instanceof InternalException) {
+            throw (InternalException) t;
+        }
+        if (t instanceof JSONException) {
+            throw new InternalException(t);
+        }
+        throw new CloudException(t);
+    }
+
+    /**
+     * Stops accepting edits. Batches already started are left to finish.
+     */
+    public synchronized void close() {
+        closed = true;
+    }
+
+    private void run(@Nonnull Batch batch) {
+        Throwable error = null;
+
+        //the batch only gathers further edits while the previous update of the server is still being written
+        if (batch.previous != null) {
+            long start = System.currentTimeMillis();
+
+            try {
+                batch.previous.done.await();
+                batch.previous = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = new CloudException("Interrupted waiting for earlier changes to " + batch.vmId);
+            }
+            OperationTrace.recordWait(System.currentTimeMillis() - start);
+        }
+        List<Entry> entries;
+
+        synchronized (this) {
+            batch.open = false;
+            entries = new ArrayList<Entry>(batch.entries);
+        }
+        try {
+            if (error == null) {
+                apply(batch.vmId, entries);
+            } else {
+                for (Entry entry : entries) {
+                    entry.error = error;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (batches.get(batch.vmId) == batch) {
+                    batches.remove(batch.vmId);
+                }
+            }
+            batch.done.countDown();
+        }
+    }
+
+    private void apply(@Nonnull String vmId, @Nonnull List<Entry> entries) {
+        int applied = 0;
+
+        try {
+            ServerSupport support = provider.getComputeServices().getVirtualMachineSupport();
+            JSONObject server = support.getServerJson(vmId);
+            VirtualMachine vm = (server == null ? null : support.toVirtualMachine(server, false));
+
+            if (server == null || vm == null) {
+                throw new CloudException("No such virtual machine: " + vmId);
+            }
+            for (Entry entry : entries) {
+                try {
+                    entry.edit.apply(server);
+                    applied++;
+                } catch (Throwable t) {
+                    entry.error = t;
+                }
+            }
+            if (applied > 0) {
+                if (logger.isInfoEnabled()) {
+                    logger.info("Writing " + applied + " combined changes to " + vmId);
+                }
+                support.change(vm, server.toString());
+            }
+        } catch (Throwable t) {
+            logger.error("Unable to change " + vmId + ": " + t.getMessage());
+            for (Entry entry : entries) {
+                if (entry.error == null) {
+                    entry.error = t;
+                }
+            }
+        }
+    }
+}
@@ -33,7 +33,12 @@ import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
+import org.dasein.cloud.cloudsigma.CloudSigmaListHandler;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
+import org.dasein.cloud.cloudsigma.InventoryCache;
+import org.dasein.cloud.cloudsigma.OperationTrace;
+import org.dasein.cloud.cloudsigma.compute.StateWatcher;
+import org.dasein.cloud.cloudsigma.compute.image.BootDrivePool;
 import org.dasein.cloud.cloudsigma.NoContextException;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
@@ -50,11 +55,25 @@ import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides access to virtual machines in CloudSigma.
@@ -67,6 +86,27 @@ import java.util.TreeSet;
 public class ServerSupport extends AbstractVMSupport {
     static private final Logger logger = CloudSigma.getLogger(ServerSupport.class);
 
+    static private final String[] TERMINATED_STATUSES = { "dead", "dumped", "unavailable" };
+
+    static private final int START_ATTEMPTS = 5;
+
+    /**
+     * Custom property that, when <code>true</code>, creates a new server while its boot drive is still cloning and
+     * attaches the drive once it is ready (default false).
+     */
+    static public final String PIPELINED_LAUNCH = "pipelinedLaunch";
+
+    static final String[] DRIVE_READY_STATUSES = { "mounted", "unmounted" };
+
+    static final long DRIVE_TIMEOUT = CalendarWrapper.MINUTE * 40L;
+
+    static final long SERVER_TIMEOUT = CalendarWrapper.MINUTE * 15L;
+
+    /**
+     * The fields {@link #toVirtualMachine(JSONObject, boolean)} reads, which are all a server listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "name", "status", "owner", "meta", "vnc_password", "cpu", "smp", "mem", "drives", "nics" };
+
     private CloudSigma provider;
 
     public ServerSupport(@Nonnull CloudSigma provider) {
@@ -75,37 +115,19 @@ public class ServerSupport extends AbstractVMSupport {
     }
 
 
-    public void assignIP(@Nonnull String serverId, @Nonnull IpAddress address) throws CloudException, InternalException {
-        VirtualMachine vm = null;
-
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+    public void assignIP(@Nonnull String serverId, @Nonnull final IpAddress address) throws CloudException, InternalException {
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws JSONException {
+                JSONArray nics = server.getJSONArray("nics");
 
-        //dmayne 20130218: use JSON Parsing
-        try {
-            String obj = method.getString(toServerURL(serverId, ""));
-            if (obj != null) {
-                vm = toVirtualMachine(new JSONObject(obj));
+                JSONObject newNic = new JSONObject(), newIP = new JSONObject();
+                newIP.put("ip", address.getProviderIpAddressId());
+                newIP.put("conf", "static");
+                newNic.put("ip_v4_conf", newIP);
+                nics.put(newNic);
+                server.put("nics", nics);
             }
-
-            if (vm == null) {
-                throw new CloudException("No such virtual machine: " + serverId);
-            }
-
-            JSONObject server = new JSONObject(obj);
-            JSONArray nics = server.getJSONArray("nics");
-
-            JSONObject newNic = new JSONObject(), newIP = new JSONObject();
-            newIP.put("ip", address.getProviderIpAddressId());
-            newIP.put("conf", "static");
-            newNic.put("ip_v4_conf", newIP);
-            nics.put(newNic);
-            server.put("nics", nics);
-
-            change(vm, server.toString());
-        }
-        catch (JSONException e) {
-            throw new InternalException(e);
-        }
+        });
     }
 
     public void attach(@Nonnull Volume volume, @Nonnull String serverId, @Nonnull String deviceId) throws CloudException, InternalException {
@@ -117,43 +139,128 @@ public class ServerSupport extends AbstractVMSupport {
         if (volume.getProviderVirtualMachineId() != null) {
             throw new CloudException("Volume is already attached to " + volume.getProviderVirtualMachineId());
         }
+        final String volumeId = volume.getProviderVolumeId();
+        final String channel = deviceId;
 
-        VirtualMachine vm = null;
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws JSONException {
+                JSONArray drives = server.getJSONArray("drives");
 
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        //dmayne 20130218: use JSON Parsing
-        try {
-            String obj = (method.getString(toServerURL(serverId, "")));
-            if (obj != null) {
-                vm = toVirtualMachine(new JSONObject(obj));
-            }
+                JSONObject newDrive = new JSONObject();
+                //todo remove hardcoded values
+                newDrive.put("boot_order", drives.length()+1);
+                newDrive.put("device", "virtio");
+                newDrive.put("dev_channel", channel);
+                newDrive.put("drive", volumeId);
 
-            if (vm == null) {
-                throw new CloudException("Virtual machine " + serverId + " does not exist");
+                drives.put(newDrive);
+                server.put("drives", drives);
             }
+        });
+    }
 
-            JSONObject server = new JSONObject(obj);
-            JSONArray drives = server.getJSONArray("drives");
+    /**
+     * Starts a server on the provider's background executor.
+     * @param vmId the server to start
+     * @param label the kind of start, used to name the task
+     * @param context where the start came from, used in log messages
+     */
+    private void startInBackground(@Nonnull final String vmId, @Nonnull String label, @Nonnull final String context) {
+        try {
+            provider.getExecutor().submit(label + " CloudSigma VM " + vmId, new Runnable() {
+                public void run() {
+                    try {
+                        ServerSupport.this.start(vmId);
+                    } catch (Exception e) {
+                        logger.warn("Failed to start VM " + context + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+        catch (CloudException e) {
+            logger.error("Unable to schedule the start of " + vmId + " " + context + ": " + e.getMessage());
+        }
+    }
 
-            JSONObject newDrive = new JSONObject();
-            //todo remove hardcoded values
-            newDrive.put("boot_order", drives.length()+1);
-            newDrive.put("device", "virtio");
-            newDrive.put("dev_channel", deviceId);
-            newDrive.put("drive", volume.getProviderVolumeId());
+    /**
+     * Makes sure a newly created server ends up running. Each attempt first waits through the provider's state
+     * watcher for the server to settle, so no background thread is held while it does, and failed attempts are
+     * rescheduled on the provider's background executor after a delay instead of holding a thread asleep between them.
+     * @param vmId the server to start
+     * @param attempt the number of this attempt, starting at 1
+     * @param delay how long in milliseconds to wait before this attempt
+     * @throws CloudException the attempt could not be scheduled
+     */
+    private void scheduleStart(@Nonnull final String vmId, final int attempt, long delay) throws CloudException {
+        final StateWatcher.Listener listener = new StateWatcher.Listener() {
+            public void finished(@Nullable String status) {
+                attemptStart(vmId, attempt, status);
+            }
+        };
+        final String[] settled = toStatuses(new VmState[] { VmState.STOPPED, VmState.RUNNING, VmState.TERMINATED });
+
+        if (logger.isInfoEnabled()) {
+            logger.info("Verifying the state of " + vmId);
+        }
+        if (delay < 1L) {
+            provider.getStateWatcher().watch(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 15L, listener, settled);
+            return;
+        }
+        provider.getExecutor().schedule("Start CloudSigma VM " + vmId, new Runnable() {
+            public void run() {
+                provider.getStateWatcher().watch(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 15L, listener, settled);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
 
-            drives.put(newDrive);
-            server.put("drives", drives);
+    /**
+     * Starts a newly created server once the wait scheduled by {@link #scheduleStart(String, int, long)} is over,
+     * scheduling another attempt if this one fails.
+     * @param vmId the server to start
+     * @param attempt the number of this attempt, starting at 1
+     * @param status the status the server settled in, as reported by the state watcher
+     */
+    private void attemptStart(@Nonnull String vmId, int attempt, @Nullable String status) {
+        OperationTrace trace = OperationTrace.begin(provider, "post-launch start", vmId);
 
-            change(vm, server.toString());
-        }
-        catch (JSONException e) {
-            throw new InternalException(e);
+        try {
+            trace.phase("verify");
+            if (status == null || Arrays.asList(TERMINATED_STATUSES).contains(status) || Arrays.asList(toStatuses(VmState.RUNNING)).contains(status)) {
+                if (logger.isInfoEnabled()) {
+                    logger.info("Pre-emptive return due to non-existence or true running: " + vmId);
+                }
+                trace.succeeded();
+                return;
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info("Start attempt " + attempt + " on " + vmId);
+            }
+            trace.phase("start");
+            start(vmId);
+            trace.succeeded();
+            if (logger.isInfoEnabled()) {
+                logger.info("VM " + vmId + " started");
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to start virtual machine " + vmId + " post-create: " + e.getMessage());
+            if (attempt < START_ATTEMPTS) {
+                try {
+                    scheduleStart(vmId, attempt + 1, CalendarWrapper.MINUTE);
+                } catch (CloudException ce) {
+                    logger.error("Unable to schedule another start attempt for " + vmId + ": " + ce.getMessage());
+                }
+            } else if (logger.isInfoEnabled()) {
+                logger.info("VM " + vmId + " never started");
+                if (logger.isDebugEnabled()) {
+                    logger.debug("status.vm." + vmId + " (not started)=" + status);
+                }
+            }
+        } finally {
+            trace.end();
         }
     }
 
-    private void change(@Nonnull VirtualMachine vm, @Nonnull String body) throws CloudException, InternalException {
+    void change(@Nonnull VirtualMachine vm, @Nonnull String body) throws CloudException, InternalException {
         if (logger.isTraceEnabled()) {
             logger.trace("ENTER - " + ServerSupport.class.getName() + ".change(" + vm + "," + body + ")");
         }
@@ -190,6 +297,12 @@ public class ServerSupport extends AbstractVMSupport {
             if (method.putString(toServerURL(vm.getProviderVirtualMachineId(), ""), body) == null) {
                 throw new CloudException("Unable to locate servers endpoint in CloudSigma");
             }
+            try {
+                invalidateReferences(new JSONObject(body));
+            }
+            catch (JSONException e) {
+                throw new InternalException(e);
+            }
             if (logger.isInfoEnabled()) {
                 logger.info("Change to " + vm.getProviderVirtualMachineId() + " succeeded");
             }
@@ -197,28 +310,7 @@ public class ServerSupport extends AbstractVMSupport {
                 if (logger.isInfoEnabled()) {
                     logger.info("Restarting " + vm.getProviderVirtualMachineId());
                 }
-                final String id = vm.getProviderVirtualMachineId();
-
-                Thread t = new Thread() {
-                    public void run() {
-                        try {
-                            try {
-                                ServerSupport.this.start(id);
-                                try { Thread.sleep(2000L); }
-                                catch( InterruptedException ignore ) { }
-                            } catch (Exception e) {
-                                logger.warn("Failed to start VM post-change: " + e.getMessage());
-                            }
-                        } finally {
-                            provider.release();
-                        }
-                    }
-                };
-
-                provider.hold();
-                t.setName("Restart CloudSigma VM " + id);
-                t.setDaemon(true);
-                t.start();
+                startInBackground(vm.getProviderVirtualMachineId(), "Restart", "post-change");
             }
         } finally {
             if (logger.isTraceEnabled()) {
@@ -236,6 +328,18 @@ public class ServerSupport extends AbstractVMSupport {
     public @Nonnull VirtualMachine clone(final @Nonnull String vmId, @Nonnull String intoDcId, @Nonnull String name, @Nonnull String description, boolean powerOn, @Nullable String... firewallIds) throws InternalException, CloudException {
         logger.debug("Name: "+name+", description: "+description);
 
+        OperationTrace trace = OperationTrace.begin(provider, "clone", vmId);
+
+        try {
+            trace.phase("lookup");
+            return clone(trace, vmId, powerOn);
+        }
+        finally {
+            trace.end();
+        }
+    }
+
+    private @Nonnull VirtualMachine clone(@Nonnull OperationTrace trace, final @Nonnull String vmId, boolean powerOn) throws InternalException, CloudException {
         VirtualMachine vm = getVirtualMachine(vmId);
 
         if (vm == null || VmState.TERMINATED.equals(vm.getCurrentState())) {
@@ -266,6 +370,7 @@ public class ServerSupport extends AbstractVMSupport {
         }  */
         try {
             //dmayne 20130222: api 2.0 uses empty body for server clone
+            trace.phase("server clone");
 
             CloudSigmaMethod method = new CloudSigmaMethod(provider);
             vm = null;    // make sure we are looking at the vm in the response
@@ -279,60 +384,23 @@ public class ServerSupport extends AbstractVMSupport {
                 throw new CloudException("No virtual machine was provided in the response");
             }
             if (powerOn) {
+                trace.phase("server wait");
                 vm = waitForState(vm, CalendarWrapper.MINUTE * 15L, VmState.STOPPED, VmState.RUNNING);
                 if (vm == null) {
                     throw new CloudException("New VM disappeared");
                 }
                 if (!VmState.RUNNING.equals(vm.getCurrentState())) {
-                    final String id = vm.getProviderVirtualMachineId();
-
-                    Thread t = new Thread() {
-                        public void run() {
-                            try {
-                                try {
-                                    ServerSupport.this.start(id);
-                                    try { Thread.sleep(2000L); }
-                                    catch( InterruptedException ignore ) { }
-                                } catch (Exception e) {
-                                    logger.warn("Failed to start VM post-create: " + e.getMessage());
-                                }
-                            } finally {
-                                provider.release();
-                            }
-                        }
-                    };
-
-                    provider.hold();
-                    t.setName("Start CloudSigma VM " + id);
-                    t.setDaemon(true);
-                    t.start();
+                    startInBackground(vm.getProviderVirtualMachineId(), "Start", "post-create");
                 }
             }
+            trace.succeeded();
             return vm;
         }
         catch (JSONException e) {
             throw new InternalException(e);
         }
         finally {
-            provider.hold();
-            Thread t = new Thread() {
-                public void run() {
-                    try {
-                        try {
-                            ServerSupport.this.start(vmId);
-                            try { Thread.sleep(2000L); }
-                            catch( InterruptedException ignore ) { }
-                        } catch (Throwable ignore) {
-                        }
-                    } finally {
-                        provider.release();
-                    }
-                }
-            };
-
-            t.setName("CloudSigma Clone Restarted " + vmId);
-            t.setDaemon(true);
-            t.start();
+            startInBackground(vmId, "Restart", "post-clone");
         }
     }
 
@@ -348,42 +416,183 @@ public class ServerSupport extends AbstractVMSupport {
         if (serverId == null) {
             throw new CloudException("No server is attached to " + volume.getProviderVolumeId());
         }
+        final String driveId = volume.getProviderVolumeId();
+
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws JSONException {
+                JSONArray drives = server.getJSONArray("drives");
+                JSONArray newArray = new JSONArray();
+                for (int i = 0; i < drives.length(); i++) {
+                    JSONObject drive = drives.getJSONObject(i);
+                    JSONObject driveObj = drive.getJSONObject("drive");
+                    if (!driveObj.getString("uuid").equals(driveId)) {
+                        newArray.put(drives.getJSONObject(i));
+                    }
+                }
+                server.put("drives", newArray);
+            }
+        });
+        provider.getInventoryCache().invalidate(InventoryCache.ResourceType.DRIVE, driveId);
+    }
 
-        VirtualMachine vm = null;
+    /**
+     * Attaches several volumes to a server in a single update, so the server is stopped and started at most once.
+     * Device channels are allocated in one pass from those not used by the server's current drives. Volumes already
+     * attached to the server keep their existing channel.
+     * @param serverId the server to attach the volumes to
+     * @param volumeIds the volumes to attach
+     * @return the device channel of each volume, keyed by volume ID
+     * @throws CloudException a volume does not exist or is attached to another server, or the server does not exist,
+     * has too few free channels or rejected the update
+     * @throws InternalException the update could not be built
+     */
+    public @Nonnull Map<String, String> attachVolumes(@Nonnull String serverId, @Nonnull final Collection<String> volumeIds) throws CloudException, InternalException {
+        final Map<String, String> channels = new LinkedHashMap<String, String>();
+
+        if (volumeIds.isEmpty()) {
+            return channels;
+        }
+        checkAttachable(serverId, volumeIds);
+        final Iterable<String> possible = provider.getComputeServices().getVolumeSupport().listPossibleDeviceIds(Platform.UNKNOWN);
+
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws CloudException, JSONException {
+                JSONArray drives = server.getJSONArray("drives");
+                Map<String, String> existing = new HashMap<String, String>();
+                Set<String> used = new HashSet<String>();
+
+                for (int i = 0; i < drives.length(); i++) {
+                    JSONObject drive = drives.getJSONObject(i);
+                    String channel = drive.optString("dev_channel", null);
+                    String driveId = toReferenceId(drive.opt("drive"));
+
+                    if (channel != null) {
+                        used.add(channel);
+                        if (driveId != null) {
+                            existing.put(driveId, channel);
+                        }
+                    }
+                }
+                Map<String, String> assigned = new LinkedHashMap<String, String>();
+                Iterator<String> free = possible.iterator();
 
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+                for (String volumeId : volumeIds) {
+                    if (existing.containsKey(volumeId)) {
+                        assigned.put(volumeId, existing.get(volumeId));
+                        continue;
+                    }
+                    String channel = null;
 
-        //dmayne 20130218: use JSON Parsing
-        try {
-            String obj = method.getString(toServerURL(serverId, ""));
-            if (obj != null) {
-                vm = toVirtualMachine(new JSONObject(obj));
-            }
+                    while (channel == null && free.hasNext()) {
+                        String candidate = free.next();
 
-            if (vm == null) {
-                throw new CloudException("No such virtual machine: " + serverId);
+                        if (!used.contains(candidate)) {
+                            channel = candidate;
+                        }
+                    }
+                    if (channel == null) {
+                        throw new CloudException("Server " + server.optString("uuid") + " has no free device channel for " + volumeId);
+                    }
+                    used.add(channel);
+                    assigned.put(volumeId, channel);
+                }
+                int bootOrder = drives.length();
+
+                for (Map.Entry<String, String> entry : assigned.entrySet()) {
+                    if (existing.containsKey(entry.getKey())) {
+                        continue;
+                    }
+                    JSONObject newDrive = new JSONObject();
+
+                    newDrive.put("boot_order", ++bootOrder);
+                    newDrive.put("device", "virtio");
+                    newDrive.put("dev_channel", entry.getValue());
+                    newDrive.put("drive", entry.getKey());
+                    drives.put(newDrive);
+                }
+                server.put("drives", drives);
+                channels.putAll(assigned);
             }
+        });
+        return channels;
+    }
 
-            String driveId = volume.getProviderVolumeId();
+    /**
+     * Makes sure every volume exists and is attached to no server other than the specified one, using a single drive
+     * listing.
+     * @param serverId the server the volumes are to be attached to
+     * @param volumeIds the volumes to check
+     * @throws CloudException a volume does not exist or is attached to another server
+     * @throws InternalException the listing could not be parsed
+     */
+    private void checkAttachable(@Nonnull final String serverId, @Nonnull final Collection<String> volumeIds) throws CloudException, InternalException {
+        final Set<String> missing = new HashSet<String>(volumeIds);
+        final Map<String, String> elsewhere = new LinkedHashMap<String, String>();
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
-            JSONObject json = new JSONObject(obj);
-            JSONArray drives = json.getJSONArray("drives");
-            JSONArray newArray = new JSONArray();
-            int index = 0;
-            for (int i = 0; i < drives.length(); i++) {
-                JSONObject drive = drives.getJSONObject(i);
-                JSONObject driveObj = drive.getJSONObject("drive");
-                if (!driveObj.getString("uuid").equals(driveId)) {
-                    newArray.put(drives.getJSONObject(i));
+        boolean found = method.stream(method.withFields("/drives/detail/?limit=0", "uuid", "mounted_on"), new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                String driveId = object.getString("uuid");
+
+                if (!missing.remove(driveId)) {
+                    return;
+                }
+                JSONArray mounts = object.optJSONArray("mounted_on");
+
+                for (int i = 0; mounts != null && i < mounts.length(); i++) {
+                    String host = toReferenceId(mounts.get(i));
+
+                    if (host != null && !host.equals(serverId)) {
+                        elsewhere.put(driveId, host);
+                        break;
+                    }
                 }
             }
-            json.put("drives", newArray);
-            String jsonBody = json.toString();
+        });
 
-            change(vm, jsonBody);
+        if (!found) {
+            throw new CloudException("Could not identify drive endpoint for CloudSigma");
         }
-        catch (JSONException e) {
-            throw new InternalException(e);
+        if (!missing.isEmpty()) {
+            throw new CloudException("No such volume: " + missing.iterator().next());
+        }
+        if (!elsewhere.isEmpty()) {
+            Map.Entry<String, String> entry = elsewhere.entrySet().iterator().next();
+
+            throw new CloudException("Volume " + entry.getKey() + " is already attached to " + entry.getValue());
+        }
+    }
+
+    /**
+     * Detaches several volumes from a server in a single update, so the server is stopped and started at most once.
+     * Volumes that are not attached to the server are ignored.
+     * @param serverId the server to detach the volumes from
+     * @param volumeIds the volumes to detach
+     * @throws CloudException the server does not exist or rejected the update
+     * @throws InternalException the update could not be built
+     */
+    public void detachVolumes(@Nonnull String serverId, @Nonnull final Collection<String> volumeIds) throws CloudException, InternalException {
+        if (volumeIds.isEmpty()) {
+            return;
+        }
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws JSONException {
+                JSONArray drives = server.getJSONArray("drives");
+                JSONArray newArray = new JSONArray();
+
+                for (int i = 0; i < drives.length(); i++) {
+                    JSONObject drive = drives.getJSONObject(i);
+
+                    if (!volumeIds.contains(toReferenceId(drive.opt("drive")))) {
+                        newArray.put(drive);
+                    }
+                }
+                server.put("drives", newArray);
+            }
+        });
+        for (String volumeId : volumeIds) {
+            provider.getInventoryCache().invalidate(InventoryCache.ResourceType.DRIVE, volumeId);
         }
     }
 
@@ -461,6 +670,25 @@ public class ServerSupport extends AbstractVMSupport {
         return "server";
     }
 
+    /**
+     * Loads the full definition of a server straight from CloudSigma, bypassing the inventory cache, so it can be
+     * modified and written back.
+     * @param vmId the server to load
+     * @return the full definition of the server, or null if it does not exist
+     * @throws CloudException an error occurred loading the server
+     * @throws InternalException the response could not be parsed
+     */
+    @Nullable JSONObject getServerJson(@Nonnull String vmId) throws CloudException, InternalException {
+        String obj = new CloudSigmaMethod(provider).fresh().getString(toServerURL(vmId, ""));
+
+        try {
+            return (obj == null ? null : new JSONObject(obj));
+        }
+        catch (JSONException e) {
+            throw new InternalException(e);
+        }
+    }
+
     @Override
     public VirtualMachine getVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
         CloudSigmaMethod method = new CloudSigmaMethod(provider);
@@ -566,274 +794,760 @@ public class ServerSupport extends AbstractVMSupport {
         if (logger.isTraceEnabled()) {
             logger.trace("ENTER - " + ServerSupport.class.getName() + ".launch(" + withLaunchOptions + ")");
         }
+        OperationTrace trace = OperationTrace.begin(provider, "launch", null);
+
         try {
-            MachineImage img = provider.getComputeServices().getImageSupport().getImage(withLaunchOptions.getMachineImageId());
+            trace.phase("image lookup");
+            MachineImage img = getLaunchImage(withLaunchOptions);
 
-            if (img == null) {
-                throw new CloudException("No such machine image: " + withLaunchOptions.getMachineImageId());
-            }
+            trace.phase("drive clone");
+            JSONObject drive = cloneBootDrive(withLaunchOptions, img);
+            String imageDriveId;
+
+            if (drive != null) {
+                try {
+                    String driveId = drive.getString("uuid");
+                    String status = drive.getString("status");
+
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("status.drive." + driveId + "=" + status);
+                    }
+                    if (!isDriveReady(status) && isPipelinedLaunch()) {
+                        //the server definition does not depend on the clone, so create it while the clone runs
+                        trace.phase("server create");
+                        JSONObject server = postServer(toServerJson(withLaunchOptions, withLaunchOptions.getHostName(), null));
+
+                        trace.setResourceId(server.optString("uuid"));
+                        trace.phase("drive wait");
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Waiting for new drive " + driveId + " to become active...");
+                        }
+                        status = provider.getStateWatcher().waitFor(StateWatcher.Kind.DRIVE, driveId, DRIVE_TIMEOUT, DRIVE_READY_STATUSES);
+                        if (!isDriveReady(status)) {
+                            discardServer(server);
+                            throw new CloudException(status == null ? "Cloned drive has disappeared" : "Cloned drive " + driveId + " did not become ready: " + status);
+                        }
+                        VirtualMachine vm;
+
+                        trace.phase("drive attach");
+                        try {
+                            vm = attachBootDrive(server, driveId);
+                        }
+                        catch (CloudException e) {
+                            discardServer(server);
+                            throw e;
+                        }
 
-            MachineImageState state = img.getCurrentState();
-            String name = img.getName();
-            boolean cloneFound = false;
-            if (state.equals(MachineImageState.ACTIVE) && name.contains("clone")) {
-                logger.info("Available 'clone' - will attach directly to new server");
-                cloneFound = true;
+                        trace.phase("server wait");
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Waiting for " + vm.getProviderVirtualMachineId() + " to be STOPPED or RUNNING...");
+                        }
+                        vm = finishLaunch(waitForState(vm, SERVER_TIMEOUT, VmState.STOPPED, VmState.RUNNING));
+                        trace.succeeded();
+                        return vm;
+                    }
+                    if (!isDriveReady(status)) {
+                        trace.phase("drive wait");
+                        if (logger.isInfoEnabled()) {
+                            logger.info("Waiting for new drive " + driveId + " to become active...");
+                        }
+                        status = provider.getStateWatcher().waitFor(StateWatcher.Kind.DRIVE, driveId, DRIVE_TIMEOUT, DRIVE_READY_STATUSES);
+                        if (!isDriveReady(status)) {
+                            throw new CloudException(status == null ? "Cloned drive has disappeared" : "Cloned drive " + driveId + " did not become ready: " + status);
+                        }
+                    }
+                    if (logger.isInfoEnabled()) {
+                        logger.info("Drive is now ready for launching");
+                    }
+                    imageDriveId = driveId;
+                }
+                catch (JSONException e) {
+                    throw new InternalException(e);
+                }
             }
             else {
-                logger.info("Image is either mounted or is not a clone - cloning drive from machine image "+ img.getProviderMachineImageId());
+                imageDriveId = img.getProviderMachineImageId();
+            }
+
+            trace.phase("server create");
+            VirtualMachine vm = createServer(withLaunchOptions, imageDriveId);
+
+            trace.setResourceId(vm.getProviderVirtualMachineId());
+            trace.phase("server wait");
+            if (logger.isInfoEnabled()) {
+                logger.info("Waiting for " + vm.getProviderVirtualMachineId() + " to be STOPPED or RUNNING...");
+            }
+            vm = waitForState(vm, SERVER_TIMEOUT, VmState.STOPPED, VmState.RUNNING);
+            vm = finishLaunch(vm);
+            trace.succeeded();
+            return vm;
+        } finally {
+            trace.end();
+            if (logger.isTraceEnabled()) {
+                logger.trace("EXIT - " + ServerSupport.class.getName() + ".launch()");
+            }
+        }
+    }
+
+    /**
+     * Launches a virtual machine without blocking the caller. The returned operation moves through cloning the boot
+     * drive, waiting for it, creating the server and waiting for it on the provider's background executor and state
+     * watcher, so a single thread may drive many launches at once. Cancelling the operation stops any further phases
+     * but does not remove resources that have already been created.
+     * @param withLaunchOptions the options for the new virtual machine
+     * @return a future for the launched virtual machine
+     * @throws CloudException the launch could not be scheduled
+     */
+    public @Nonnull LaunchOperation launchAsync(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException {
+        LaunchOperation operation = new LaunchOperation(provider, this, withLaunchOptions);
+
+        operation.begin();
+        return operation;
+    }
+
+    /**
+     * Launches several virtual machines from the same options. The boot drives are cloned concurrently on the
+     * provider's background executor, all servers are created with a single request and their startup is tracked
+     * through the shared state watcher, so the whole batch takes about as long as a single launch. Each server is
+     * named after the host name in the launch options with its index appended. Servers whose boot drive could not be
+     * cloned are left out of the batch, and cloned drives that end up without a server are removed again.
+     * @param withLaunchOptions the options for the new virtual machines
+     * @param count the number of virtual machines to launch
+     * @return the IDs of the launched virtual machines
+     * @throws CloudException no virtual machines could be launched, or the image is a drive that is attached
+     * directly rather than cloned and so cannot boot more than one server
+     * @throws InternalException the requests could not be built or the responses parsed
+     */
+    public @Nonnull Iterable<String> launchMany(@Nonnull final VMLaunchOptions withLaunchOptions, int count) throws CloudException, InternalException {
+        if (count < 1) {
+            throw new InternalException("Invalid number of virtual machines to launch: " + count);
+        }
+        if (count == 1) {
+            return Collections.singletonList(launch(withLaunchOptions).getProviderVirtualMachineId());
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace("ENTER - " + ServerSupport.class.getName() + ".launchMany(" + withLaunchOptions + "," + count + ")");
+        }
+        OperationTrace trace = OperationTrace.begin(provider, "launch many", null);
+
+        try {
+            trace.phase("image lookup");
+            final MachineImage img = getLaunchImage(withLaunchOptions);
+
+            if (isReusableClone(img) && !isCdrom(img)) {
+                throw new CloudException("Machine image " + img.getProviderMachineImageId() + " is attached directly rather than cloned, so it cannot boot " + count + " servers");
+            }
+            ArrayList<String> names = new ArrayList<String>();
+            ArrayList<Future<JSONObject>> clones = new ArrayList<Future<JSONObject>>();
+
+            trace.phase("drive clone");
+
+            for (int i = 1; i <= count; i++) {
+                final String name = withLaunchOptions.getHostName() + "-" + i;
+
+                names.add(name);
+                clones.add(provider.getExecutor().schedule("Clone boot drive for " + name, new Callable<JSONObject>() {
+                    public JSONObject call() throws Exception {
+                        return cloneBootDrive(withLaunchOptions, img, name);
+                    }
+                }, 0L, TimeUnit.MILLISECONDS));
+            }
+
+            String[] driveIds = new String[count];
+            ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+            //drives cloned for this batch that no server boots from yet; whatever is left at the end is removed
+            HashSet<String> unclaimed = new HashSet<String>();
+            //set while servers may have been created without this method knowing which drives they took
+            boolean uncertain = false;
+
+            try {
+                ArrayList<String> pending = new ArrayList<String>();
+                Throwable lastError = null;
+
+                for (int i = 0; i < count; i++) {
+                    try {
+                        JSONObject drive = clones.get(i).get();
+
+                        if (drive == null) {
+                            driveIds[i] = img.getProviderMachineImageId();
+                        }
+                        else {
+                            driveIds[i] = drive.getString("uuid");
+                            unclaimed.add(driveIds[i]);
+                            if (!isDriveReady(drive.getString("status"))) {
+                                pending.add(driveIds[i]);
+                            }
+                        }
+                    }
+                    catch (ExecutionException e) {
+                        lastError = e.getCause();
+                        logger.error("Unable to clone a boot drive for " + names.get(i) + ": " + lastError.getMessage());
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CloudException("Interrupted while cloning boot drives", e);
+                    }
+                    catch (JSONException e) {
+                        throw new InternalException(e);
+                    }
+                }
+                trace.phase("drive wait");
+                if (logger.isInfoEnabled() && !pending.isEmpty()) {
+                    logger.info("Waiting for " + pending.size() + " new drives to become active...");
+                }
+                Map<String, String> statuses = waitForAll(StateWatcher.Kind.DRIVE, pending, DRIVE_TIMEOUT, DRIVE_READY_STATUSES);
+
+                for (String driveId : pending) {
+                    String status = statuses.get(driveId);
+
+                    if (!isDriveReady(status)) {
+                        logger.error("Cloned drive " + driveId + " did not become ready: " + (status == null ? "disappeared" : status));
+                        for (int i = 0; i < count; i++) {
+                            if (driveId.equals(driveIds[i])) {
+                                driveIds[i] = null;
+                            }
+                        }
+                    }
+                }
+
+                JSONArray servers = new JSONArray();
+
+                trace.phase("server create");
+
+                for (int i = 0; i < count; i++) {
+                    if (driveIds[i] != null) {
+                        servers.put(toServerJson(withLaunchOptions, names.get(i), driveIds[i]));
+                    }
+                }
+                if (servers.length() < 1) {
+                    throw new CloudException("No drives were cloned to support the machine launch process", lastError);
+                }
+
+                try {
+                    JSONObject body = new JSONObject();
+
+                    body.put("objects", servers);
+                    if (logger.isInfoEnabled()) {
+                        logger.info("Creating " + servers.length() + " servers....");
+                    }
+                    String created;
+
+                    uncertain = true;
+                    try {
+                        created = new CloudSigmaMethod(provider).postString("/servers/", body.toString());
+                    }
+                    catch (CloudSigmaException e) {
+                        uncertain = !isRejected(e);
+                        throw e;
+                    }
+                    JSONObject obj = new JSONObject(created);
+
+                    for (int i = 0; i < servers.length(); i++) {
+                        invalidateReferences(servers.getJSONObject(i));
+                    }
+                    JSONArray arr = obj.getJSONArray("objects");
+
+                    for (int i = 0; i < arr.length(); i++) {
+                        removeClaimedDrives(arr.getJSONObject(i), unclaimed);
+                    }
+                    uncertain = false;
+                    for (int i = 0; i < arr.length(); i++) {
+                        VirtualMachine vm = toVirtualMachine(arr.getJSONObject(i));
+
+                        if (vm != null) {
+                            vms.add(vm);
+                        }
+                    }
+                    if (arr.length() < servers.length()) {
+                        logger.error("Only " + arr.length() + " of " + servers.length() + " servers were created");
+                    }
+                }
+                catch (JSONException e) {
+                    throw new InternalException(e);
+                }
+            }
+            finally {
+                if (uncertain && !removeListedClaims(unclaimed)) {
+                    logger.warn("Leaving cloned drives " + unclaimed + " in place since it is unknown which servers were created");
+                    unclaimed.clear();
+                }
+                for (String driveId : unclaimed) {
+                    discardDrive(driveId);
+                }
+            }
+            if (vms.isEmpty()) {
+                throw new CloudException("No virtual machines were provided in the response");
+            }
+
+            ArrayList<String> ids = new ArrayList<String>();
+
+            ArrayList<String> starting = new ArrayList<String>();
+
+            trace.phase("server wait");
+
+            for (VirtualMachine vm : vms) {
+                if (!VmState.STOPPED.equals(vm.getCurrentState()) && !VmState.RUNNING.equals(vm.getCurrentState())) {
+                    starting.add(vm.getProviderVirtualMachineId());
+                }
+            }
+            Map<String, String> settled = waitForAll(StateWatcher.Kind.SERVER, starting, SERVER_TIMEOUT, toStatuses(new VmState[] { VmState.STOPPED, VmState.RUNNING }));
+
+            for (VirtualMachine vm : vms) {
+                String vmId = vm.getProviderVirtualMachineId();
+
+                try {
+                    if (starting.contains(vmId)) {
+                        vm = (settled.containsKey(vmId) ? reload(vm) : null);
+                    }
+                    ids.add(finishLaunch(vm).getProviderVirtualMachineId());
+                }
+                catch (CloudException e) {
+                    logger.error("Launch of " + vmId + " failed: " + e.getMessage());
+                }
+            }
+            trace.succeeded();
+            return ids;
+        } finally {
+            trace.end();
+            if (logger.isTraceEnabled()) {
+                logger.trace("EXIT - " + ServerSupport.class.getName() + ".launchMany()");
+            }
+        }
+    }
+
+    @Nonnull MachineImage getLaunchImage(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        MachineImage img = provider.getComputeServices().getImageSupport().getImage(withLaunchOptions.getMachineImageId());
+
+        if (img == null) {
+            throw new CloudException("No such machine image: " + withLaunchOptions.getMachineImageId());
+        }
+        return img;
+    }
+
+    /**
+     * Clones the boot drive for a new server from its machine image unless the image may be attached directly.
+     * @param withLaunchOptions the launch options
+     * @param img the machine image being launched
+     * @return the newly cloned drive, or null if the image drive itself should be attached
+     * @throws CloudException no drive was cloned
+     * @throws InternalException the response could not be parsed
+     */
+    @Nullable JSONObject cloneBootDrive(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull MachineImage img) throws CloudException, InternalException {
+        return cloneBootDrive(withLaunchOptions, img, withLaunchOptions.getHostName());
+    }
+
+    private @Nullable JSONObject cloneBootDrive(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull MachineImage img, @Nonnull String name) throws CloudException, InternalException {
+        boolean cloneFound = isReusableClone(img);
+        if (cloneFound) {
+            logger.info("Available 'clone' - will attach directly to new server");
+        }
+        else {
+            logger.info("Image is either mounted or is not a clone - cloning drive from machine image "+ img.getProviderMachineImageId());
+        }
+
+        //dmayne 20130529: cdrom does not need to be cloned and can be attached directly
+        if (isCdrom(img) || cloneFound) {
+            return null;
+        }
+        BootDrivePool pool = provider.getBootDrivePool();
+
+        if (pool.isEnabled()) {
+            //the pool checks the drive's current status with an uncached read before handing it over
+            JSONObject pooled = pool.take(img.getProviderMachineImageId(), name);
+
+            if (pooled != null) {
+                return pooled;
+            }
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Cloning drive from machine image " + img.getProviderMachineImageId() + "...");
+        }
+
+        JSONObject drive = provider.getComputeServices().getImageSupport().cloneDrive(withLaunchOptions.getMachineImageId(), name, null);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("drive=" + drive);
+        }
+        try {
+            if (drive != null && drive.has("objects")) {
+                JSONArray objects = drive.getJSONArray("objects");
+
+                if (objects.length() > 0 && objects.getJSONObject(0).has("uuid")) {
+                    return objects.getJSONObject(0);
+                }
+            }
+        }
+        catch (JSONException e) {
+            throw new InternalException(e);
+        }
+        throw new CloudException("No drive was cloned to support the machine launch process");
+    }
+
+    /**
+     * @param img a machine image
+     * @return true if the image is an unmounted earlier clone that a new server boots from as it is
+     */
+    private boolean isReusableClone(@Nonnull MachineImage img) {
+        return (img.getCurrentState().equals(MachineImageState.ACTIVE) && img.getName().contains("clone"));
+    }
+
+    /**
+     * @param img a machine image
+     * @return true if the image is installation media, which any number of servers may share
+     */
+    private boolean isCdrom(@Nonnull MachineImage img) {
+        return img.getTag("media").toString().equals("cdrom");
+    }
+
+    /**
+     * Waits for several resources at once. Every resource is registered with the state watcher before any is waited
+     * on, so they are all covered by the same polls and the wait lasts as long as the slowest of them.
+     * @param kind the kind of resource being watched
+     * @param ids the resources to wait for
+     * @param timeout how long to wait in milliseconds
+     * @param statuses the raw CloudSigma statuses to wait for
+     * @return the status each resource settled in, the last status seen for those that timed out, or
+     * {@link StateWatcher#UNOBSERVED}; resources that disappeared are left out
+     * @throws CloudException the wait was interrupted
+     */
+    private @Nonnull Map<String, String> waitForAll(@Nonnull StateWatcher.Kind kind, @Nonnull Collection<String> ids, long timeout, @Nonnull String ... statuses) throws CloudException {
+        final Map<String, String> settled = new ConcurrentHashMap<String, String>();
+        final CountDownLatch latch = new CountDownLatch(ids.size());
+
+        for (final String id : ids) {
+            provider.getStateWatcher().watch(kind, id, timeout, new StateWatcher.Listener() {
+                public void finished(@Nullable String status) {
+                    if (status != null) {
+                        settled.put(id, status);
+                    }
+                    latch.countDown();
+                }
+            }, statuses);
+        }
+        try {
+            //the watcher notifies timed out watches on its next poll, so allow for one more interval
+            latch.await(timeout + CalendarWrapper.MINUTE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudException("Interrupted while waiting for " + kind + " status changes", e);
+        }
+        return new HashMap<String, String>(settled);
+    }
+
+    static boolean isDriveReady(@Nullable String status) {
+        return (status != null && (status.equals("mounted") || status.equals("unmounted")));
+    }
+
+    /**
+     * Creates a new server around an existing boot drive.
+     * @param withLaunchOptions the launch options
+     * @param imageDriveId the drive the server boots from
+     * @return the newly created server
+     * @throws CloudException no server was created
+     * @throws InternalException the request could not be built or the response parsed
+     */
+    @Nonnull VirtualMachine createServer(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull String imageDriveId) throws CloudException, InternalException {
+        VirtualMachine vm = toVirtualMachine(postServer(toServerJson(withLaunchOptions, withLaunchOptions.getHostName(), imageDriveId)));
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("vm=" + vm);
+        }
+        if (vm == null) {
+            throw new CloudException("No virtual machine was provided in the response");
+        }
+        return vm;
+    }
+
+    /**
+     * @return true if new servers should be created while their boot drive is still cloning
+     */
+    boolean isPipelinedLaunch() {
+        return provider.getBooleanProperty(PIPELINED_LAUNCH, false);
+    }
+
+    /**
+     * Creates a single server.
+     * @param newServer the definition of the new server
+     * @return the server as CloudSigma created it
+     * @throws CloudException no server was created
+     * @throws InternalException the response could not be parsed
+     */
+    @Nonnull JSONObject postServer(@Nonnull JSONObject newServer) throws CloudException, InternalException {
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        if (logger.isInfoEnabled()) {
+            logger.info("Creating server....");
+        }
+        try {
+            //dmayne 20130218: use JSON Parsing
+            String body = method.postString("/servers/", newServer.toString());
+
+            invalidateReferences(newServer);
+            if (body == null) {
+                throw new CloudException("No virtual machine was provided in the response");
+            }
+            //dmayne 20130227: check value returned and extract created server from the objects array
+            JSONArray arr = new JSONObject(body).getJSONArray("objects");
+
+            if (arr.length() < 1) {
+                throw new CloudException("No virtual machine was provided in the response");
             }
+            return arr.getJSONObject(0);
+        }
+        catch (JSONException e) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Attaches a boot drive to a server created without one. New servers are stopped, so the drive is attached
+     * with a single PUT of the server definition returned when it was created.
+     * @param server the server as CloudSigma created it
+     * @param imageDriveId the drive the server boots from
+     * @return the server with its boot drive attached
+     * @throws CloudException the drive could not be attached
+     * @throws InternalException the request could not be built or the response parsed
+     */
+    @Nonnull VirtualMachine attachBootDrive(@Nonnull JSONObject server, @Nonnull String imageDriveId) throws CloudException, InternalException {
+        try {
+            String vmId = server.getString("uuid");
+            JSONArray drives = new JSONArray();
 
-            String media = img.getTag("media").toString();
+            drives.put(toBootDrive(imageDriveId));
+            server.put("drives", drives);
+            if (logger.isInfoEnabled()) {
+                logger.info("Attaching boot drive " + imageDriveId + " to " + vmId);
+            }
+            String body = new CloudSigmaMethod(provider).putString(toServerURL(vmId, ""), server.toString());
+
+            invalidateReferences(server);
+            VirtualMachine vm = toVirtualMachine(body == null ? null : new JSONObject(body));
+
+            if (vm == null) {
+                throw new CloudException("Virtual machine " + vmId + " disappeared before its boot drive could be attached");
+            }
+            return vm;
+        }
+        catch (JSONException e) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Removes a server created for a launch that could not be completed.
+     * @param server the server as CloudSigma created it
+     */
+    void discardServer(@Nonnull JSONObject server) {
+        String vmId = server.optString("uuid");
+
+        try {
+            new CloudSigmaMethod(provider).deleteString(toServerURL(vmId, ""), "");
+        }
+        catch (Exception e) {
+            logger.error("Unable to remove server " + vmId + " left by a failed launch: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param e the error from a request to create servers
+     * @return true if CloudSigma answered and refused the request, so it certainly created nothing; a gateway error
+     * or a timeout says nothing about whether the request went through
+     */
+    static private boolean isRejected(@Nonnull CloudSigmaException e) {
+        int code = e.getHttpCode();
+
+        return (code >= 400 && code != CloudSigmaMethod.BAD_GATEWAY && code != CloudSigmaMethod.GATEWAY_TIMEOUT);
+    }
 
-            String imageDriveId = null;
-            //dmayne 20130529: cdrom does not need to be cloned and can be attached directly
-            if (!media.equals("cdrom") && !cloneFound) {
-                if (logger.isInfoEnabled()) {
-                    logger.info("Cloning drive from machine image " + img.getProviderMachineImageId() + "...");
-                }
+    /**
+     * Removes the drives a server has attached from a set of drive IDs.
+     * @param server the server
+     * @param driveIds the drive IDs to remove claimed drives from
+     */
+    private void removeClaimedDrives(@Nonnull JSONObject server, @Nonnull Set<String> driveIds) {
+        JSONArray drives = server.optJSONArray("drives");
 
-                JSONObject drive = provider.getComputeServices().getImageSupport().cloneDrive(withLaunchOptions.getMachineImageId(), withLaunchOptions.getHostName(), null);
+        if (drives != null) {
+            for (int i = 0; i < drives.length(); i++) {
+                JSONObject drive = drives.optJSONObject(i);
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("drive=" + drive);
+                if (drive != null) {
+                    driveIds.remove(toReferenceId(drive.opt("drive")));
                 }
-                String driveId = null;
-                try {
-                    JSONObject actualDrive = null;
-                    if (drive.has("objects")) {
-                        JSONArray objects = drive.getJSONArray("objects");
-                        actualDrive = (JSONObject) objects.get(0);
-                        driveId = actualDrive.getString("uuid");
-                    }
+            }
+        }
+    }
 
-                    if (driveId == null) {
-                        throw new CloudException("No drive was cloned to support the machine launch process");
-                    }
-                    long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 40L);
-                    String status = actualDrive.getString("status");
+    /**
+     * Lists every server and removes the drives they have attached from a set of drive IDs. Used when a request to
+     * create servers around the drives may have gone through without a readable response.
+     * @param driveIds the drive IDs to remove claimed drives from
+     * @return true if the servers could be listed
+     */
+    private boolean removeListedClaims(@Nonnull final Set<String> driveIds) {
+        try {
+            CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
-                    if (logger.isInfoEnabled()) {
-                        logger.info("Waiting for new drive " + driveId + " to become active...");
-                    }
-                    while (timeout > System.currentTimeMillis()) {
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("status.drive." + driveId + "=" + status);
-                       }
-                        if (status != null && (status.equals("mounted") || status.equals("unmounted"))) {
-                            if (logger.isInfoEnabled()) {
-                                logger.info("Drive is now ready for launching");
-                            }
-                            break;
-                        }
-                        try {
-                            Thread.sleep(20000L);
-                        } catch (InterruptedException ignore) {
-                        }
-                        try {
-                            actualDrive = provider.getComputeServices().getImageSupport().getDrive(driveId);
-                        } catch (Throwable ignore) {
-                        }
-                        if (actualDrive == null) {
-                            throw new CloudException("Cloned drive has disappeared");
-                        }
-                        status = actualDrive.getString("status");
-                    }
-                    imageDriveId = actualDrive.getString("uuid");
-                }
-                catch (JSONException e) {
-                    throw new InternalException(e);
+            return method.stream(method.withFields("/servers/detail/?limit=0", "uuid", "drives"), new CloudSigmaListHandler() {
+                @Override
+                public void handle(@Nonnull JSONObject object) {
+                    removeClaimedDrives(object, driveIds);
                 }
-            }
-            else {
-                imageDriveId = img.getProviderMachineImageId();
-            }
+            });
+        }
+        catch (Exception e) {
+            logger.error("Unable to list servers to find the drives they use: " + e.getMessage());
+            return false;
+        }
+    }
 
-            //dmayne 20130529: now we can create server and attach drive
-            try {
-                JSONObject newServer = new JSONObject(), newDrive = new JSONObject(), newNic = new JSONObject(), newVlan = new JSONObject();
-                JSONArray drives = new JSONArray(), nics = new JSONArray();
+    /**
+     * Removes a boot drive cloned for a launch that never created a server around it.
+     * @param driveId the cloned drive
+     */
+    void discardDrive(@Nonnull String driveId) {
+        try {
+            new CloudSigmaMethod(provider).deleteString("/drives/" + URLEncoder.encode(driveId, "utf-8") + "/", "");
+        }
+        catch (Exception e) {
+            logger.error("Unable to remove drive " + driveId + " left by a failed launch: " + e.getMessage());
+        }
+    }
 
-                newServer.put("name", withLaunchOptions.getHostName().replaceAll("\n", " "));
-                String password = withLaunchOptions.getBootstrapPassword();
+    private @Nonnull JSONObject toBootDrive(@Nonnull String imageDriveId) throws JSONException {
+        JSONObject newDrive = new JSONObject();
 
-                if( password == null ) {
-                    password = generatePassword();
-                }
-                newServer.put("vnc_password", password);
+        newDrive.put("boot_order", 1);
+        newDrive.put("device", "virtio");
+        newDrive.put("dev_channel", "0:0");
+        newDrive.put("drive", imageDriveId);
+        return newDrive;
+    }
 
-                newDrive.put("boot_order", 1);
-                newDrive.put("device", "virtio");
-                newDrive.put("dev_channel", "0:0");
-                newDrive.put("drive", imageDriveId);
+    /**
+     * Builds the request body for a new server.
+     * @param withLaunchOptions the launch options
+     * @param name the name of the new server
+     * @param imageDriveId the drive the server boots from, or null to create the server without one
+     * @return the new server definition
+     * @throws InternalException the definition could not be built
+     */
+    @Nonnull JSONObject toServerJson(@Nonnull VMLaunchOptions withLaunchOptions, @Nonnull String name, @Nullable String imageDriveId) throws InternalException {
+        //dmayne 20130529: now we can create server and attach drive
+        try {
+            JSONObject newServer = new JSONObject(), newNic = new JSONObject(), newVlan = new JSONObject();
+            JSONArray drives = new JSONArray(), nics = new JSONArray();
 
-                drives.put(newDrive);
+            newServer.put("name", name.replaceAll("\n", " "));
+            String password = withLaunchOptions.getBootstrapPassword();
 
-                newServer.put("drives", drives);
+            if( password == null ) {
+                password = generatePassword();
+            }
+            newServer.put("vnc_password", password);
 
-                String productId = withLaunchOptions.getStandardProductId();
-                int cpuCount = 1, cpuSpeed = 1000, ramInMb = 512;
-                long ramInBytes = 536870912;
-                String[] parts = productId.replaceAll("\n", " ").split(":");
-                if (parts.length > 1) {
-                    cpuCount = 1;
-                    try {
-                        ramInMb = Integer.parseInt(parts[0]);
-                        ramInBytes = ramInMb * 1024L * 1024L;
-                        cpuSpeed = Integer.parseInt(parts[1]);
-                        if (parts.length == 3) {
-                            cpuCount = Integer.parseInt(parts[2]);
-                            // total speed will be cpuCount * perSMPspeed
-                            cpuSpeed = cpuSpeed*cpuCount;
-                        }
-                    } catch (NumberFormatException ignore) {
-                        // ignore
-                    }
-                }
+            if (imageDriveId != null) {
+                drives.put(toBootDrive(imageDriveId));
+            }
 
-                newServer.put("cpu", String.valueOf(cpuSpeed));
-                newServer.put("mem", String.valueOf(ramInBytes));
-                newServer.put("smp", String.valueOf(cpuCount));
+            newServer.put("drives", drives);
 
-                if (withLaunchOptions.getVlanId() != null) {
-                    newVlan.put("uuid", withLaunchOptions.getVlanId().replaceAll("\n", " "));
-                    newNic.put("vlan", newVlan);
-                    nics.put(newNic);
-                    newServer.put("nics", nics);
-                }
-                else {
-                    JSONObject newIP = new JSONObject();
-                    newIP.put("conf", "dhcp");
-                    newNic.put("ip_v4_conf", newIP);
-
-                    //firewall support
-                    if (withLaunchOptions.getFirewallIds() != null && withLaunchOptions.getFirewallIds().length > 0) {
-                        if (withLaunchOptions.getFirewallIds().length == 1) {
-                            newNic.put("firewall_policy", withLaunchOptions.getFirewallIds()[0]);
-                        }
-                        else {
-                            logger.warn("Firewall not applied to server as there is more than one - current list has "+withLaunchOptions.getFirewallIds().length);
-                        }
+            String productId = withLaunchOptions.getStandardProductId();
+            int cpuCount = 1, cpuSpeed = 1000, ramInMb = 512;
+            long ramInBytes = 536870912;
+            String[] parts = productId.replaceAll("\n", " ").split(":");
+            if (parts.length > 1) {
+                cpuCount = 1;
+                try {
+                    ramInMb = Integer.parseInt(parts[0]);
+                    ramInBytes = ramInMb * 1024L * 1024L;
+                    cpuSpeed = Integer.parseInt(parts[1]);
+                    if (parts.length == 3) {
+                        cpuCount = Integer.parseInt(parts[2]);
+                        // total speed will be cpuCount * perSMPspeed
+                        cpuSpeed = cpuSpeed*cpuCount;
                     }
-
-                    nics.put(newNic);
-                    newServer.put("nics", nics);
+                } catch (NumberFormatException ignore) {
+                    // ignore
                 }
+            }
 
-                CloudSigmaMethod method = new CloudSigmaMethod(provider);
+            newServer.put("cpu", String.valueOf(cpuSpeed));
+            newServer.put("mem", String.valueOf(ramInBytes));
+            newServer.put("smp", String.valueOf(cpuCount));
 
-                if (logger.isInfoEnabled()) {
-                    logger.info("Creating server....");
+            if (withLaunchOptions.getVlanId() != null) {
+                newVlan.put("uuid", withLaunchOptions.getVlanId().replaceAll("\n", " "));
+                newNic.put("vlan", newVlan);
+                nics.put(newNic);
+                newServer.put("nics", nics);
+            }
+            else {
+                JSONObject newIP = new JSONObject();
+                newIP.put("conf", "dhcp");
+                newNic.put("ip_v4_conf", newIP);
+
+                //firewall support
+                if (withLaunchOptions.getFirewallIds() != null && withLaunchOptions.getFirewallIds().length > 0) {
+                    if (withLaunchOptions.getFirewallIds().length == 1) {
+                        newNic.put("firewall_policy", withLaunchOptions.getFirewallIds()[0]);
+                    }
+                    else {
+                        logger.warn("Firewall not applied to server as there is more than one - current list has "+withLaunchOptions.getFirewallIds().length);
+                    }
                 }
-                //dmayne 20130218: use JSON Parsing
-                VirtualMachine vm = null;
-                JSONObject obj = new JSONObject(method.postString("/servers/", newServer.toString()));
 
-                //dmayne 20130227: check value returned and extract created server from the objects array
-                if (obj != null) {
-                    JSONObject object = (JSONObject) obj;
-                    JSONArray arr = object.getJSONArray("objects");
-                    JSONObject server = arr.getJSONObject(0);
-                    vm = toVirtualMachine((JSONObject) server);
-                }
+                nics.put(newNic);
+                newServer.put("nics", nics);
+            }
+            return newServer;
+        }
+        catch (JSONException e) {
+            throw new InternalException(e);
+        }
+    }
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("vm=" + vm);
-                }
-                if (vm == null) {
-                    throw new CloudException("No virtual machine was provided in the response");
-                }
-                if (logger.isInfoEnabled()) {
-                    logger.info("Waiting for " + vm.getProviderVirtualMachineId() + " to be STOPPED or RUNNING...");
-                }
-                vm = waitForState(vm, CalendarWrapper.MINUTE * 15L, VmState.STOPPED, VmState.RUNNING);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("post wait vm=" + vm);
-                }
-                if (vm == null) {
-                    throw new CloudException("Virtual machine disappeared waiting for startup state");
-                }
-                if (logger.isDebugEnabled()) {
-                    logger.debug("status.vm." + vm.getProviderVirtualMachineId() + "=" + vm.getCurrentState());
-                }
-                if (!VmState.RUNNING.equals(vm.getCurrentState())) {
-                    if (logger.isInfoEnabled()) {
-                        logger.info("Setting up a separate thread to start " + vm.getProviderVirtualMachineId() + "...");
-                    }
-                    final String id = vm.getProviderVirtualMachineId();
+    /**
+     * Completes a launch once the new server has settled, scheduling its start if it is not already running.
+     * @param vm the new server after waiting for it to settle
+     * @return the new server
+     * @throws CloudException the server disappeared
+     */
+    @Nonnull VirtualMachine finishLaunch(@Nullable VirtualMachine vm) throws CloudException {
+        if (logger.isDebugEnabled()) {
+            logger.debug("post wait vm=" + vm);
+        }
+        if (vm == null) {
+            throw new CloudException("Virtual machine disappeared waiting for startup state");
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("status.vm." + vm.getProviderVirtualMachineId() + "=" + vm.getCurrentState());
+        }
+        if (!VmState.RUNNING.equals(vm.getCurrentState())) {
+            final String vmId = vm.getProviderVirtualMachineId();
 
-                    Thread t = new Thread() {
+            if (logger.isInfoEnabled()) {
+                logger.info("Setting up a separate thread to start " + vmId + "...");
+            }
+            try {
+                if (VmState.STOPPED.equals(vm.getCurrentState())) {
+                    //already settled, so there is nothing to wait for before the first attempt
+                    provider.getExecutor().submit("Start CloudSigma VM " + vmId, new Runnable() {
                         public void run() {
-                            try {
-                                VirtualMachine vm = null;
-
-                                for (int i = 0; i < 5; i++) {
-                                    try {
-                                        if (vm == null) {
-                                            try {
-                                                vm = getVirtualMachine(id);
-                                            } catch (Throwable ignore) {
-                                                // ignore
-                                            }
-                                        }
-                                        if (vm != null) {
-                                            if (logger.isInfoEnabled()) {
-                                                logger.info("Verifying the state of " + id);
-                                            }
-                                            vm = waitForState(vm, CalendarWrapper.MINUTE * 15L, VmState.STOPPED, VmState.RUNNING);
-                                            if (vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) || VmState.RUNNING.equals(vm.getCurrentState())) {
-                                                if (logger.isInfoEnabled()) {
-                                                    logger.info("Pre-emptive return due to non-existence or true running: " + id);
-                                                }
-                                                return;
-                                            }
-                                        }
-                                        if (logger.isInfoEnabled()) {
-                                            logger.info("Start attempt " + (i + 1) + " on " + id);
-                                        }
-                                        ServerSupport.this.start(id);
-                                        if (logger.isInfoEnabled()) {
-                                            logger.info("VM " + id + " started");
-                                        }
-                                        try { Thread.sleep(2000L); }
-                                        catch( InterruptedException ignore ) { }
-                                        return;
-                                    } catch (Exception e) {
-                                        logger.warn("Failed to start virtual machine " + id + " post-create: " + e.getMessage());
-                                    }
-                                    try {
-                                        Thread.sleep(60000L);
-                                    } catch (InterruptedException ignore) {
-                                    }
-                                }
-                                if (logger.isInfoEnabled()) {
-                                    logger.info("VM " + id + " never started");
-                                    if (vm != null) {
-                                        logger.debug("status.vm." + id + " (not started)=" + vm.getCurrentState());
-                                    }
-                                }
-                            } finally {
-                                provider.release();
-                            }
+                            attemptStart(vmId, 1, "stopped");
                         }
-                    };
-
-                    provider.hold();
-                    t.setName("Start CloudSigma VM " + id);
-                    t.setDaemon(true);
-                    t.start();
+                    });
+                }
+                else {
+                    scheduleStart(vmId, 1, 0L);
                 }
-                return vm;
-            }
-
-            catch (JSONException e) {
-                throw new InternalException(e);
             }
-        } finally {
-            if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + ServerSupport.class.getName() + ".launch()");
+            catch (CloudException e) {
+                logger.error("Unable to schedule the start of " + vm.getProviderVirtualMachineId() + ": " + e.getMessage());
             }
         }
+        return vm;
     }
 
     @Override
@@ -942,53 +1656,55 @@ public class ServerSupport extends AbstractVMSupport {
 
     @Override
     public @Nonnull Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-        ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        List<VirtualMachine> list = listServers();
 
-        boolean moreData = true;
-        String baseTarget = "/servers/detail/?limit=0";
-        String target = "";
+        //look up the platforms of all boot drives together rather than one image per server
+        HashSet<String> imageIds = new HashSet<String>();
 
-        //while(moreData)  {     - commented out as it seems paging is no longer supported
-        //but who knows when the api will change back again
-            //dmayne 20130218: JSON Parsing
-            target = baseTarget+target;
+        for (VirtualMachine vm : list) {
+            if (vm.getProviderMachineImageId() != null) {
+                imageIds.add(vm.getProviderMachineImageId());
+            }
+        }
+        Map<String, Platform> platforms = provider.getComputeServices().getImageSupport().getPlatforms(imageIds);
 
-            JSONObject jObject = method.list(target);
+        for (VirtualMachine vm : list) {
+            Platform os = platforms.get(vm.getProviderMachineImageId());
 
-            if (jObject == null) {
-                throw new CloudException("No servers endpoint found");
+            if (os != null) {
+                vm.setPlatform(os);
             }
+        }
+        return list;
+    }
 
-            try {
-                JSONArray objects = jObject.getJSONArray("objects");
-                for (int i=0; i< objects.length(); i++) {
-                    VirtualMachine vm = toVirtualMachine(objects.getJSONObject(i));
-
-                    if (vm != null) {
-                        list.add(vm);
-                    }
-                }
+    /**
+     * Lists every server without looking up the platform of their boot drives, which takes two more listings. Use it
+     * where only the servers themselves matter, such as resolving what drives are attached to.
+     * @return every server in the account
+     * @throws CloudException an error occurred listing the servers
+     * @throws InternalException the listing could not be parsed
+     */
+    public @Nonnull List<VirtualMachine> listServers() throws InternalException, CloudException {
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+        final ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
 
-              /*  //dmayne 20130314: check if there are more pages       - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (jObject.has("meta")) {
-                    JSONObject meta = jObject.getJSONObject("meta");
+        //paging is no longer supported by the API so everything comes back in one response;
+        //stream it so only one server at a time is held as a JSON tree
+        boolean found = method.stream(method.withFields("/servers/detail/?limit=0", LIST_FIELDS), new CloudSigmaListHandler() {
+            @Override
+            public void handle(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                VirtualMachine vm = toVirtualMachine(object, false);
 
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                } */
-            }
-            catch (JSONException e) {
-                throw new InternalException(e);
+                if (vm != null) {
+                    list.add(vm);
+                }
             }
-     //   }
+        });
+
+        if (!found) {
+            throw new CloudException("No servers endpoint found");
+        }
         return list;
     }
 
@@ -1006,75 +1722,46 @@ public class ServerSupport extends AbstractVMSupport {
         }
         stop(vmId);
 
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 20L);
+        String status = provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 20L, "stopped", "dead", "dumped", "unavailable");
 
-        while (timeout > System.currentTimeMillis()) {
-            try {
-                vm = getVirtualMachine(vmId);
-            } catch (Exception ignore) {
-            }
-            if (vm == null || VmState.TERMINATED.equals(vm.getCurrentState())) {
-                throw new CloudException("Server disappeared during reboot");
-            }
-            if (VmState.STOPPED.equals(vm.getCurrentState())) {
-                break;
-            }
-            try {
-                Thread.sleep(15000L);
-            } catch (InterruptedException ignore) {
-            }
+        if (status == null || Arrays.asList(TERMINATED_STATUSES).contains(status)) {
+            throw new CloudException("Server disappeared during reboot");
+        }
+        if (status.equals(StateWatcher.UNOBSERVED)) {
+            throw new CloudException("Unable to confirm that " + vmId + " stopped during reboot");
         }
         start(vmId);
     }
 
-    public void releaseIP(@Nonnull IpAddress address) throws CloudException, InternalException {
+    public void releaseIP(@Nonnull final IpAddress address) throws CloudException, InternalException {
         String serverId = address.getServerId();
 
         if (serverId == null) {
             throw new CloudException("No server is assigned to " + address.getProviderIpAddressId());
         }
-        VirtualMachine vm = null;
-
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        //dmayne 20130218: use JSON Parsing
-        try {
-            String obj = method.getString(toServerURL(serverId, ""));
-            if (obj != null ) {
-                vm = toVirtualMachine(new JSONObject(obj));
-            }
-
-            if (vm == null) {
-                throw new CloudException("No such virtual machine: " + serverId);
-            }
-
-            JSONObject json = new JSONObject(obj);
-            JSONArray nics = json.getJSONArray("nics");
-            JSONArray newArray = new JSONArray();
-            int index = 0;
-            for (int i = 0; i < nics.length(); i++) {
-                JSONObject nic = (JSONObject) nics.get(i);
-                if (address.getVersion().equals(IPVersion.IPV4)) {
-                    JSONObject nicObj = nic.getJSONObject("ip_v4_conf");
-                    if (nicObj.isNull("ip") && nicObj.getString("conf").equalsIgnoreCase("dhcp")) {
-                         newArray.put(nics.getJSONObject(i));
-                    }
-                    else if (!nicObj.isNull("ip")) {
-                        JSONObject ip = nicObj.getJSONObject("ip");
-                        if (!ip.getString("uuid").equals(address.getProviderIpAddressId())) {
-                            newArray.put(nics.getJSONObject(i));
+        provider.getServerChangeQueue().submit(serverId, new ServerChangeQueue.Edit() {
+            public void apply(@Nonnull JSONObject server) throws JSONException {
+                JSONArray nics = server.getJSONArray("nics");
+                JSONArray newArray = new JSONArray();
+                for (int i = 0; i < nics.length(); i++) {
+                    JSONObject nic = (JSONObject) nics.get(i);
+                    if (address.getVersion().equals(IPVersion.IPV4)) {
+                        JSONObject nicObj = nic.getJSONObject("ip_v4_conf");
+                        if (nicObj.isNull("ip") && nicObj.getString("conf").equalsIgnoreCase("dhcp")) {
+                             newArray.put(nics.getJSONObject(i));
+                        }
+                        else if (!nicObj.isNull("ip")) {
+                            JSONObject ip = nicObj.getJSONObject("ip");
+                            if (!ip.getString("uuid").equals(address.getProviderIpAddressId())) {
+                                newArray.put(nics.getJSONObject(i));
+                            }
                         }
                     }
                 }
+                server.put("nics", newArray);
             }
-            json.put("nics", newArray);
-            String jsonBody = json.toString();
-
-            change(vm, jsonBody);
-        }
-        catch (JSONException e) {
-            throw new InternalException(e);
-        }
+        });
+        provider.getInventoryCache().invalidate(InventoryCache.ResourceType.IP, address.getProviderIpAddressId());
     }
 
     @Override
@@ -1120,8 +1807,9 @@ public class ServerSupport extends AbstractVMSupport {
                 method.postString(toServerURL(vmId, "action/?do=stop"), "");
             } else {
                 method.postString(toServerURL(vmId, "action/?do=shutdown"), "");
-                VirtualMachine v = waitForState(getVirtualMachine(vmId),CalendarWrapper.MINUTE * 5L, VmState.STOPPED, VmState.RUNNING);
-                if (!v.getCurrentState().equals(VmState.STOPPED)) {
+                String status = provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 5L, "stopped");
+
+                if (status != null && !status.equals("stopped")) {
                     stop(vmId, true);
                 }
             }
@@ -1154,47 +1842,52 @@ public class ServerSupport extends AbstractVMSupport {
 
     @Override
     public void terminate(@Nonnull String vmId, @Nullable String explanation) throws InternalException, CloudException {
+        OperationTrace trace = OperationTrace.begin(provider, "terminate", vmId);
+
+        try {
+            trace.phase("lookup");
+            terminate(trace, vmId);
+        }
+        finally {
+            trace.end();
+        }
+    }
+
+    private void terminate(@Nonnull OperationTrace trace, @Nonnull String vmId) throws InternalException, CloudException {
         VirtualMachine vm = getVirtualMachine(vmId);
 
         if (vm == null) {
             throw new CloudException("No such virtual machine: " + vmId);
         }
         if( !vm.getCurrentState().equals(VmState.STOPPED) ) {
+            trace.phase("stop wait");
             try { stop(vmId, true); }
             catch( Exception ignore ) { }
-        }
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE* 5L);
-
-        while( timeout > System.currentTimeMillis() ) {
-            if( vm == null ) {
+            //only a listing that no longer includes the server proves there is nothing left to delete
+            if( provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 5L, "stopped") == null ) {
+                trace.succeeded();
                 return;
             }
-            if( vm.getCurrentState().equals(VmState.STOPPED) ) {
-                break;
-            }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-            try { vm = getVirtualMachine(vmId); }
-            catch( Throwable ignore ) { }
         }
         CloudSigmaMethod method = new CloudSigmaMethod(provider);
 
+        trace.phase("delete");
         method.deleteString(toServerURL(vmId, ""), "");
 
-        timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 5L);
+        //the server's drives, addresses, networks and policies no longer list it
+        InventoryCache cache = provider.getInventoryCache();
 
-        try {
-            vm = getVirtualMachine(vmId);
-        } catch (Exception ignore) {
-        }
-        while (timeout > System.currentTimeMillis()) {
-            if (vm == null || VmState.TERMINATED.equals(vm.getCurrentState())) {
-                return;
-            }
-            try {
-                Thread.sleep(15000L);
-            } catch (InterruptedException ignore) {
-            }
+        cache.invalidate(InventoryCache.ResourceType.DRIVE);
+        cache.invalidate(InventoryCache.ResourceType.IP);
+        cache.invalidate(InventoryCache.ResourceType.VLAN);
+        cache.invalidate(InventoryCache.ResourceType.FIREWALL);
+
+        trace.phase("removal wait");
+        String status = provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, vmId, CalendarWrapper.MINUTE * 5L, TERMINATED_STATUSES);
+
+        trace.succeeded();
+        if (status == null || Arrays.asList(TERMINATED_STATUSES).contains(status)) {
+            return;
         }
         logger.warn("System timed out waiting for the VM termination to complete");
     }
@@ -1229,6 +1922,68 @@ public class ServerSupport extends AbstractVMSupport {
         return new String[0];
     }
 
+    /**
+     * Drops the cached copies of the drives, addresses, VLANs and firewall policies a server definition refers to,
+     * since their own representations list the servers using them.
+     * @param server the server definition sent to CloudSigma
+     * @throws JSONException the server definition is not in the expected format
+     */
+    private void invalidateReferences(@Nonnull JSONObject server) throws JSONException {
+        InventoryCache cache = provider.getInventoryCache();
+
+        if (!cache.isEnabled()) {
+            return;
+        }
+        JSONArray drives = server.optJSONArray("drives");
+
+        if (drives != null) {
+            for (int i = 0; i < drives.length(); i++) {
+                JSONObject drive = drives.optJSONObject(i);
+                String id = (drive == null ? null : toReferenceId(drive.opt("drive")));
+
+                if (id != null) {
+                    cache.invalidate(InventoryCache.ResourceType.DRIVE, id);
+                }
+            }
+        }
+        JSONArray nics = server.optJSONArray("nics");
+
+        if (nics != null) {
+            for (int i = 0; i < nics.length(); i++) {
+                JSONObject nic = nics.optJSONObject(i);
+
+                if (nic == null) {
+                    continue;
+                }
+                String id = toReferenceId(nic.opt("vlan"));
+
+                if (id != null) {
+                    cache.invalidate(InventoryCache.ResourceType.VLAN, id);
+                }
+                id = toReferenceId(nic.opt("firewall_policy"));
+                if (id != null) {
+                    cache.invalidate(InventoryCache.ResourceType.FIREWALL, id);
+                }
+                JSONObject conf = nic.optJSONObject("ip_v4_conf");
+
+                id = (conf == null ? null : toReferenceId(conf.opt("ip")));
+                if (id != null) {
+                    cache.invalidate(InventoryCache.ResourceType.IP, id);
+                }
+            }
+        }
+    }
+
+    private @Nullable String toReferenceId(@Nullable Object reference) {
+        if (reference instanceof JSONObject) {
+            return ((JSONObject) reference).optString("uuid", null);
+        }
+        if (reference instanceof String) {
+            return (String) reference;
+        }
+        return null;
+    }
+
     private boolean isPublic(@Nonnull String ip) {
         if (ip.startsWith("127.0.0.")) {
             return false;
@@ -1323,6 +2078,15 @@ public class ServerSupport extends AbstractVMSupport {
     }
 
     private @Nullable VirtualMachine toVirtualMachine(@Nullable JSONObject object) throws CloudException, InternalException {
+        return toVirtualMachine(object, true);
+    }
+
+    /**
+     * @param object the server JSON
+     * @param resolvePlatform true to look up the boot drive to establish the platform; listings pass false and
+     *                        resolve the platforms of all servers in bulk instead
+     */
+    @Nullable VirtualMachine toVirtualMachine(@Nullable JSONObject object, boolean resolvePlatform) throws CloudException, InternalException {
         if (object == null) {
             return null;
         }
@@ -1372,11 +2136,15 @@ public class ServerSupport extends AbstractVMSupport {
                 vm.setProviderMachineImageId(imageId);
                 
                 //dmayne 20130524: try to get image os
-                logger.debug("Trying to establish the platform for "+imageId);
-                MachineImage image = provider.getComputeServices().getImageSupport().getImage(imageId);
-                Platform os = image.getPlatform();
-                vm.setPlatform(os);
-                logger.debug("Server os is "+vm.getPlatform());
+                if (resolvePlatform) {
+                    logger.debug("Trying to establish the platform for "+imageId);
+                    MachineImage image = provider.getComputeServices().getImageSupport().getImage(imageId);
+
+                    if (image != null) {
+                        vm.setPlatform(image.getPlatform());
+                    }
+                    logger.debug("Server os is "+vm.getPlatform());
+                }
             }
 
             String vlanId = null;
@@ -1616,27 +2384,58 @@ public class ServerSupport extends AbstractVMSupport {
     }
 
     private @Nullable VirtualMachine waitForState(@Nonnull VirtualMachine vm, long timeoutPeriod, @Nonnull VmState... states) {
-        long timeout = System.currentTimeMillis() + timeoutPeriod;
-        VirtualMachine newVm = vm;
-
-        while (timeout > System.currentTimeMillis()) {
-            if (newVm == null) {
-                return null;
-            }
-            for (VmState state : states) {
-                if (state.equals(newVm.getCurrentState())) {
-                    return newVm;
-                }
-            }
-            try {
-                Thread.sleep(15000L);
-            } catch (InterruptedException ignore) {
-            }
-            try {
-                newVm = getVirtualMachine(vm.getProviderVirtualMachineId());
-            } catch (Exception ignore) {
+        for (VmState state : states) {
+            if (state.equals(vm.getCurrentState())) {
+                return vm;
             }
         }
-        return newVm;
+        String vmId = vm.getProviderVirtualMachineId();
+
+        provider.getStateWatcher().waitFor(StateWatcher.Kind.SERVER, vmId, timeoutPeriod, toStatuses(states));
+        return reload(vm);
+    }
+
+    /**
+     * @param vm a server that has just finished waiting for a state change
+     * @return the current state of the server, the server as it was if it could not be loaded, or null if it no
+     * longer exists
+     */
+    private @Nullable VirtualMachine reload(@Nonnull VirtualMachine vm) {
+        String vmId = vm.getProviderVirtualMachineId();
+
+        try {
+            return getVirtualMachine(vmId);
+        } catch (Exception e) {
+            logger.warn("Unable to load " + vmId + " after waiting for state change: " + e.getMessage());
+            return vm;
+        }
+    }
+
+    /**
+     * @param states one or more Dasein VM states
+     * @return the raw CloudSigma server statuses that map to any of the states
+     */
+    @Nonnull String[] toStatuses(@Nonnull VmState[] states) {
+        ArrayList<String> statuses = new ArrayList<String>();
+
+        for (VmState state : states) {
+            Collections.addAll(statuses, toStatuses(state));
+        }
+        return statuses.toArray(new String[statuses.size()]);
+    }
+
+    /**
+     * @param state a Dasein VM state
+     * @return the raw CloudSigma server statuses that {@link #toStatus(JSONObject)} maps to the state
+     */
+    private @Nonnull String[] toStatuses(@Nonnull VmState state) {
+        switch (state) {
+            case STOPPED: return new String[] { "stopped" };
+            case STOPPING: return new String[] { "stopping" };
+            case RUNNING: return new String[] { "started", "running" };
+            case PAUSED: return new String[] { "paused" };
+            case TERMINATED: return TERMINATED_STATUSES;
+            default: return new String[] { "starting" };
+        }
     }
 }
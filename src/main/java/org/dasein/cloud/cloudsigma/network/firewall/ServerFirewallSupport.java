@@ -31,7 +31,9 @@ import org.dasein.cloud.Tag;
 import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
+import org.dasein.cloud.cloudsigma.CloudSigmaPagingException;
 import org.dasein.cloud.cloudsigma.NoContextException;
+import org.dasein.cloud.cloudsigma.PagedListing;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.Direction;
 import org.dasein.cloud.network.Firewall;
@@ -66,6 +68,11 @@ import java.util.Locale;
 public class ServerFirewallSupport extends AbstractFirewallSupport {
     static private final Logger logger = CloudSigma.getLogger(ServerFirewallSupport.class);
 
+    /**
+     * The fields {@link #toFirewall(JSONObject)} reads, which are all a firewall policy listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "name" };
+
     private CloudSigma provider;
 
     public ServerFirewallSupport(@Nonnull CloudSigma provider) {
@@ -90,7 +97,7 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
             throw new OperationNotSupportedException("Target type "+destinationEndpoint.getRuleTargetType()+" for destinationEndpoint not supported in CloudSigma");
         }
 
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+        CloudSigmaMethod method = new CloudSigmaMethod(provider).fresh();
 
         try{
             JSONObject fw = new JSONObject(method.getString(toFirewallURL(firewallId, "")));
@@ -241,52 +248,24 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
     @Override
     public Collection<Firewall> list() throws InternalException, CloudException {
         ArrayList<Firewall> list = new ArrayList<Firewall>();
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        boolean moreData = true;
-        String baseTarget = "/fwpolicies/detail/?limit=0";
-        String target = "";
-
-       // while(moreData)  {     - commented out as it seems paging is no longer supported
-       // but who knows when the api will change back again
-            target = baseTarget+target;
-
-            try {
-                JSONObject json = method.list(target);
-
-                if (json == null) {
-                   throw new CloudException("No firewall endpoint was found");
-                }
-                JSONArray objects = json.getJSONArray("objects");
-                for (int i = 0; i < objects.length(); i++) {
-                   JSONObject jObj = objects.getJSONObject(i);
-
-                    Firewall fw = toFirewall(jObj);
-
-                    if (fw != null) {
-                        list.add(fw);
-                    }
-                }
-
-              /*  //dmayne 20130314: check if there are more pages          - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (json.has("meta")) {
-                    JSONObject meta = json.getJSONObject("meta");
+        PagedListing<Firewall> pages = new PagedListing<Firewall>(provider, "/fwpolicies/detail/", new PagedListing.Converter<Firewall>() {
+            @Override
+            public @Nullable Firewall convert(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                return toFirewall(object);
+            }
+        }, LIST_FIELDS);
 
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                } */
+        try {
+            for (Firewall fw : pages) {
+                list.add(fw);
             }
-            catch (JSONException e) {
-                throw new InternalException(e);
+        }
+        catch (CloudSigmaPagingException e) {
+            if (e.getCause() instanceof CloudException) {
+                throw (CloudException) e.getCause();
             }
-    //    }
+            throw new InternalException(e.getCause());
+        }
         return list;
     }
 
@@ -410,24 +389,29 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
 
     @Override
     public void revoke(@Nonnull String providerFirewallRuleId) throws InternalException, CloudException {
-        FirewallRule rule = null;
+        CloudSigmaMethod method = new CloudSigmaMethod(provider).fresh();
 
-        for( Firewall f : list() ) {
-            String fwId = f.getProviderFirewallId();
+        //one listing of every policy with its rules rather than a fetch of each policy in turn
+        try {
+            JSONObject json = method.list("/fwpolicies/detail/?limit=0");
 
-            if( fwId != null ) {
-                for( FirewallRule r : getRules(fwId) ) {
-                    if( providerFirewallRuleId.equals(r.getProviderRuleId()) ) {
-                        rule = r;
-                        break;
-                    }
+            if (json == null) {
+                throw new CloudException("No firewall endpoint was found");
+            }
+            JSONArray objects = json.getJSONArray("objects");
+
+            for (int i = 0; i < objects.length(); i++) {
+                JSONObject fw = objects.getJSONObject(i);
+
+                if (fw.has("uuid") && !fw.isNull("uuid") && removeRule(fw, providerFirewallRuleId, fw.getString("uuid"))) {
+                    return;
                 }
             }
         }
-        if( rule == null ) {
-            throw new CloudException("Unable to parse rule ID: " + providerFirewallRuleId);
+        catch (JSONException e) {
+            throw new InternalException(e);
         }
-        revoke(providerFirewallRuleId, rule.getFirewallId());
+        throw new CloudException("Unable to parse rule ID: " + providerFirewallRuleId);
     }
 
     @Override
@@ -448,31 +432,51 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
     }
 
     private void revoke(@Nonnull String ruleId, @Nonnull String firewallId) throws CloudException, InternalException {
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-        JSONArray newArray = new JSONArray();
+        CloudSigmaMethod method = new CloudSigmaMethod(provider).fresh();
 
         try{
-            JSONObject fw = new JSONObject(method.getString(toFirewallURL(firewallId, "")));
-            JSONArray rules = fw.getJSONArray("rules");
-            for (int i = 0; i<rules.length(); i++) {
-                JSONObject rule = rules.getJSONObject(i);
-                FirewallRule r = toFirewallRule(rule, firewallId);
-                if (!r.getProviderRuleId().equalsIgnoreCase(ruleId)) {
-                    newArray.put(rule);
-                }
-            }
-            fw.put("rules", newArray);
-            String jsonBody = fw.toString();
+            String body = method.getString(toFirewallURL(firewallId, ""));
 
-            if (method.putString(toFirewallURL(firewallId, ""), jsonBody) == null) {
+            if (body == null) {
                 throw new CloudException("Unable to locate firewall endpoint in CloudSigma");
             }
+            removeRule(new JSONObject(body), ruleId, firewallId);
         }
         catch (JSONException e) {
             throw new InternalException(e);
         }
     }
 
+    /**
+     * Removes the specified rule from an already fetched firewall policy and saves the policy if the rule was in it.
+     * @param fw the current JSON for the firewall policy
+     * @param ruleId the Dasein ID of the rule to remove
+     * @param firewallId the ID of the firewall policy
+     * @return true if the rule was found and removed
+     */
+    private boolean removeRule(@Nonnull JSONObject fw, @Nonnull String ruleId, @Nonnull String firewallId) throws CloudException, InternalException, JSONException {
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+        JSONArray rules = (fw.has("rules") && !fw.isNull("rules") ? fw.getJSONArray("rules") : new JSONArray());
+        JSONArray newArray = new JSONArray();
+
+        for (int i = 0; i<rules.length(); i++) {
+            JSONObject rule = rules.getJSONObject(i);
+            FirewallRule r = toFirewallRule(rule, firewallId);
+
+            if (!r.getProviderRuleId().equalsIgnoreCase(ruleId)) {
+                newArray.put(rule);
+            }
+        }
+        if (newArray.length() == rules.length()) {
+            return false;
+        }
+        fw.put("rules", newArray);
+        if (method.putString(toFirewallURL(firewallId, ""), fw.toString()) == null) {
+            throw new CloudException("Unable to locate firewall endpoint in CloudSigma");
+        }
+        return true;
+    }
+
     @Override
     public boolean supportsRules(@Nonnull Direction direction, @Nonnull Permission permission, boolean inVlan) throws CloudException, InternalException {
         if (!inVlan) {
@@ -504,7 +508,7 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
         //To change body of overridden methods use File | Settings | File Templates.
     }
 
-    private Firewall toFirewall(JSONObject fw) throws CloudException, InternalException{
+    Firewall toFirewall(JSONObject fw) throws CloudException, InternalException{
         if (fw == null) {
             return null;
         }
@@ -568,7 +572,7 @@ public class ServerFirewallSupport extends AbstractFirewallSupport {
         return new ResourceStatus(fwId, true);
     }
 
-    private FirewallRule toFirewallRule(JSONObject fwRule, String fwID) throws CloudException, InternalException{
+    FirewallRule toFirewallRule(JSONObject fwRule, String fwID) throws CloudException, InternalException{
         if (fwRule == null) {
             return null;
         }
@@ -33,6 +33,7 @@ import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
 import org.dasein.cloud.cloudsigma.NoContextException;
+import org.dasein.cloud.cloudsigma.PagedListing;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.AddressType;
 import org.dasein.cloud.network.IPVersion;
@@ -60,6 +61,11 @@ import java.util.Locale;
 public class StaticIPSupport implements IpAddressSupport {
     static private final Logger logger = CloudSigma.getLogger(StaticIPSupport.class);
 
+    /**
+     * The fields {@link #toIP(JSONObject, boolean)} reads, which are all an IP listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "server", "owner" };
+
     private CloudSigma provider;
 
     public StaticIPSupport(@Nonnull CloudSigma provider) {
@@ -170,59 +176,14 @@ public class StaticIPSupport implements IpAddressSupport {
     }
 
     @Override
-    public @Nonnull Iterable<IpAddress> listIpPool(@Nonnull IPVersion version, boolean unassignedOnly) throws InternalException, CloudException {
+    public @Nonnull Iterable<IpAddress> listIpPool(@Nonnull IPVersion version, final boolean unassignedOnly) throws InternalException, CloudException {
         if (version.equals(IPVersion.IPV4)) {
-
-            ArrayList<IpAddress> addresses = new ArrayList<IpAddress>();
-            CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-            boolean moreData = true;
-            String baseTarget = "/ips/detail/?limit=0";
-            String target = "";
-
-          //  while(moreData)  {      - commented out as it seems paging is no longer supported
-           // but who knows when the api will change back again
-                //dmayne 20130218: JSON Parsing
-                target = baseTarget+target;
-
-                JSONObject pool = method.list(target);
-
-                if (pool == null) {
-                    throw new CloudException("Unable to communicate with CloudSigma endpoint");
+            return new PagedListing<IpAddress>(provider, "/ips/detail/", new PagedListing.Converter<IpAddress>() {
+                @Override
+                public @Nullable IpAddress convert(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                    return toIP(object, unassignedOnly);
                 }
-                //dmayne 20130218: use JSON parsing
-                try {
-                    JSONArray objects = pool.getJSONArray("objects");
-                    for (int i = 0; i < objects.length(); i++) {
-                        JSONObject jObj = objects.getJSONObject(i);
-
-                        IpAddress address = toIP(jObj, unassignedOnly);
-
-                        if (address != null) {
-                            addresses.add(address);
-                        }
-                    }
-
-                   /* //dmayne 20130314: check if there are more pages       - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                    if (pool.has("meta")) {
-                        JSONObject meta = pool.getJSONObject("meta");
-
-                        if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                            target = meta.getString("next");
-                            target = target.substring(target.indexOf("?"));
-                            moreData = true;
-                        }
-                        else  {
-                            moreData = false;
-                        }
-                    } */
-                }
-                catch (JSONException e) {
-                    throw new InternalException(e);
-                }
-           // }
-            return addresses;
+            }, LIST_FIELDS);
         }
         return Collections.emptyList();
     }
@@ -348,7 +309,7 @@ public class StaticIPSupport implements IpAddressSupport {
         return new String[0];
     }
 
-    private @Nullable IpAddress toIP(@Nullable JSONObject object, boolean unassignedOnly) throws CloudException, InternalException {
+    @Nullable IpAddress toIP(@Nullable JSONObject object, boolean unassignedOnly) throws CloudException, InternalException {
         if (object == null) {
             return null;
         }
@@ -34,6 +34,7 @@ import org.dasein.cloud.cloudsigma.CloudSigma;
 import org.dasein.cloud.cloudsigma.CloudSigmaConfigurationException;
 import org.dasein.cloud.cloudsigma.CloudSigmaMethod;
 import org.dasein.cloud.cloudsigma.NoContextException;
+import org.dasein.cloud.cloudsigma.PagedListing;
 import org.dasein.cloud.compute.ComputeServices;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VirtualMachineSupport;
@@ -67,6 +68,11 @@ import java.util.*;
 public class ServerVLANSupport extends AbstractVLANSupport {
     static private final Logger logger = CloudSigma.getLogger(ServerVLANSupport.class);
 
+    /**
+     * The fields {@link #toVLAN(JSONObject)} reads, which are all a VLAN listing needs to carry.
+     */
+    static final String[] LIST_FIELDS = { "uuid", "owner", "meta" };
+
     private CloudSigma provider;
 
     public ServerVLANSupport(@Nonnull CloudSigma provider) {
@@ -388,55 +394,12 @@ public class ServerVLANSupport extends AbstractVLANSupport {
 
     @Override
     public @Nonnull Iterable<VLAN> listVlans() throws CloudException, InternalException {
-        ArrayList<VLAN> networks = new ArrayList<VLAN>();
-        CloudSigmaMethod method = new CloudSigmaMethod(provider);
-
-        boolean moreData = true;
-        String baseTarget = "/vlans/detail/?limit=0";
-        String target = "";
-
-       // while(moreData)  {                   - commented out as it seems paging is no longer supported
-        //but who knows when the api will change back again
-            //dmayne 20130218: JSON Parsing
-            target = baseTarget+target;
-
-            try {
-                JSONObject json = method.list(target);
-
-                if (json == null) {
-                    throw new CloudException("No VLAN endpoint was found");
-                }
-                JSONArray objects = json.getJSONArray("objects");
-                for (int i = 0; i < objects.length(); i++) {
-                    JSONObject jObj = objects.getJSONObject(i);
-
-                    VLAN vlan = toVLAN(jObj);
-
-                    if (vlan != null) {
-                        networks.add(vlan);
-                    }
-                }
-
-              /*  //dmayne 20130314: check if there are more pages      - commented out as it seems paging is no longer supported
-                but who knows when the api will change back again
-                if (json.has("meta")) {
-                    JSONObject meta = json.getJSONObject("meta");
-
-                    if (meta.has("next") && !(meta.isNull("next")) && !meta.getString("next").equals("")) {
-                        target = meta.getString("next");
-                        target = target.substring(target.indexOf("?"));
-                        moreData = true;
-                    }
-                    else  {
-                        moreData = false;
-                    }
-                }  */
+        return new PagedListing<VLAN>(provider, "/vlans/detail/", new PagedListing.Converter<VLAN>() {
+            @Override
+            public @Nullable VLAN convert(@Nonnull JSONObject object) throws CloudException, InternalException, JSONException {
+                return toVLAN(object);
             }
-            catch (JSONException e) {
-                throw new InternalException(e);
-            }
-       // }
-        return networks;
+        }, LIST_FIELDS);
     }
 
     @Override
@@ -511,7 +474,7 @@ public class ServerVLANSupport extends AbstractVLANSupport {
         }
     }
 
-    private @Nullable VLAN toVLAN(@Nullable JSONObject object) throws CloudException, InternalException {
+    @Nullable VLAN toVLAN(@Nullable JSONObject object) throws CloudException, InternalException {
         if (object == null) {
             return null;
         }
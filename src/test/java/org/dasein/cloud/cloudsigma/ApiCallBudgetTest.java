@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.cloudsigma.sim.CloudSigmaSimulator;
+import org.dasein.cloud.cloudsigma.sim.SimulatorFixture;
+import org.dasein.cloud.network.FirewallRule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Holds the public listing operations to a fixed number of HTTP requests however large the inventory is. Each
+ * operation runs against a {@link CloudSigmaSimulator} at two inventory sizes, so a lookup added per item
+ * shows up as a budget failure here rather than as a slow console in production.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class ApiCallBudgetTest extends SimulatorFixture {
+    static private final int SMALL = 5;
+    static private final int LARGE = 50;
+
+    private ApiCallCounter counter;
+
+    @Test
+    public void listVirtualMachinesIsConstant() throws Exception {
+        for (int size : new int[] { SMALL, LARGE }) {
+            connect(size);
+            int count = 0;
+
+            for (Object ignore : provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines()) {
+                count++;
+            }
+            assertEquals(size, count);
+            //servers, then platforms from drives and libdrives
+            assertBudget("listVirtualMachines", size, 3);
+            tearDown();
+        }
+    }
+
+    @Test
+    public void listVolumesIsConstant() throws Exception {
+        for (int size : new int[] { SMALL, LARGE }) {
+            connect(size);
+            int count = 0;
+
+            for (Object ignore : provider.getComputeServices().getVolumeSupport().listVolumes()) {
+                count++;
+            }
+            assertTrue("Expected at least " + size + " volumes, got " + count, count >= size);
+            //drives, then a single server listing to resolve what they are mounted on
+            assertBudget("listVolumes", size, 2);
+            tearDown();
+        }
+    }
+
+    @Test
+    public void listResourcesIsConstant() throws Exception {
+        for (int size : new int[] { SMALL, LARGE }) {
+            connect(size);
+            String vlanId = simulator.getIds(CloudSigmaSimulator.VLANS).get(0);
+            int count = 0;
+
+            for (Object ignore : provider.getNetworkServices().getVlanSupport().listResources(vlanId)) {
+                count++;
+            }
+            assertTrue("Expected resources in " + vlanId, count > 0);
+            //IP pool, then the server listing
+            assertBudget("listResources", size, 4);
+            tearDown();
+        }
+    }
+
+    @Test
+    public void revokeIsConstant() throws Exception {
+        for (int size : new int[] { SMALL, LARGE }) {
+            connect(size);
+            String firewallId = simulator.getIds(CloudSigmaSimulator.FWPOLICIES).get(size - 1);
+            String ruleId = null;
+
+            for (FirewallRule rule : provider.getNetworkServices().getFirewallSupport().getRules(firewallId)) {
+                ruleId = rule.getProviderRuleId();
+            }
+            assertTrue("No rule found in " + firewallId, ruleId != null);
+            counter.reset();
+            provider.getNetworkServices().getFirewallSupport().revoke(ruleId);
+            //one listing of every policy and one update of the policy holding the rule
+            assertBudget("revoke", size, 2);
+            assertEquals(1, counter.getCount(CloudSigmaRequest.PUT));
+            assertEquals(0, simulator.get(CloudSigmaSimulator.FWPOLICIES, firewallId).getJSONArray("rules").length());
+            tearDown();
+        }
+    }
+
+    private void assertBudget(String operation, int size, int budget) {
+        assertTrue(operation + " made " + counter.getCount() + " requests for " + size + " items, budget is " + budget + ": " + counter.getCalls(), counter.getCount() <= budget);
+    }
+
+    private void connect(int size) throws Exception {
+        connect(start(new CloudSigmaSimulator().withServers(size).withDrives(size).withLibraryDrives(2).withIps(size).withVlans(1).withFirewallPolicies(size)));
+        counter = new ApiCallCounter();
+        provider.addInterceptor(counter);
+    }
+}
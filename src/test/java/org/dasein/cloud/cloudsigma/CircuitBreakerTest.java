@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.sim.CloudSigmaSimulator;
+import org.dasein.cloud.cloudsigma.sim.SimulatorFixture;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a circuit breaker opens on failures, fails fast while open, and closes again after a successful probe.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CircuitBreakerTest extends SimulatorFixture {
+    @Test
+    public void opensOnFailuresAndClosesAfterProbe() {
+        CircuitBreaker breaker = new CircuitBreaker("test");
+        CircuitBreaker.Policy policy = new CircuitBreaker.Policy(50, 4, 60000L, 0L);
+
+        for (int i = 0; i < 4; i++) {
+            breaker.record(breaker.tryAcquire(policy), i % 2 == 0, policy);
+        }
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(1L, breaker.getTripCount());
+
+        //the open period is over, so one probe is let through and everyone else is held back until it finishes
+        CircuitBreaker.State probe = breaker.tryAcquire(policy);
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, probe);
+        assertNull(breaker.tryAcquire(policy));
+        breaker.record(probe, false, policy);
+        assertEquals("CLOSED", breaker.getState());
+        assertNotNull(breaker.tryAcquire(policy));
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        CircuitBreaker breaker = new CircuitBreaker("test");
+        CircuitBreaker.Policy policy = new CircuitBreaker.Policy(100, 1, 60000L, 0L);
+
+        breaker.record(breaker.tryAcquire(policy), true, policy);
+        breaker.record(breaker.tryAcquire(policy), true, policy);
+        assertEquals("OPEN", breaker.getState());
+        assertEquals(2L, breaker.getTripCount());
+    }
+
+    @Test
+    public void openBreakerFailsFast() throws Exception {
+        ProviderContext ctx = start(new CloudSigmaSimulator().withServers(1).withErrorRate(1.0));
+
+        ctx.getCustomProperties().setProperty(RetryInterceptor.MAX_RETRIES, "0");
+        ctx.getCustomProperties().setProperty(CircuitBreakers.MINIMUM_CALLS, "4");
+        connect(ctx);
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                method.getString("/servers/");
+                fail("Expected a simulated failure");
+            } catch (CircuitOpenException e) {
+                fail("Opened after only " + i + " calls");
+            } catch (CloudSigmaException expected) {
+            }
+        }
+        try {
+            method.getString("/servers/");
+            fail("Expected the breaker to be open");
+        } catch (CircuitOpenException expected) {
+        }
+        assertEquals(4L, simulator.getRequestCount());
+    }
+
+    @Test
+    public void breakersBelongToOneProvider() throws Exception {
+        connect(start(new CloudSigmaSimulator().withServers(1)));
+        new CloudSigmaMethod(provider).getString("/servers/");
+        assertEquals(1, provider.getCircuitBreakers().getBreakers().size());
+
+        CloudSigma other = new CloudSigma();
+
+        other.connect(simulator.newContext());
+        try {
+            assertEquals(0, other.getCircuitBreakers().getBreakers().size());
+        } finally {
+            other.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.sim.CloudSigmaSimulator;
+import org.dasein.cloud.cloudsigma.sim.SimulatorFixture;
+import org.dasein.cloud.network.IPVersion;
+import org.dasein.cloud.network.IpAddress;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that paged listings fetch each page exactly once, stop at the reported total, and do not run ahead of an
+ * abandoned iteration by more than the prefetch window.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class PagedListingTest extends SimulatorFixture {
+    static private final int SIZE = 50;
+
+    private ApiCallCounter counter;
+
+    @Test
+    public void unpagedListingIsOneRequest() throws Exception {
+        connect(null, null);
+        assertEquals(SIZE, countIps());
+        assertEquals(1, counter.getCount());
+    }
+
+    @Test
+    public void pagedListingFetchesEveryPageOnce() throws Exception {
+        connect("7", "2");
+        assertEquals(SIZE, countIps());
+        settle();
+        //ceil(50 / 7) pages and nothing past the total
+        assertEquals(8, counter.getCount());
+    }
+
+    @Test
+    public void pagedListingWithoutPrefetch() throws Exception {
+        connect("7", "0");
+        assertEquals(SIZE, countIps());
+        assertEquals(8, counter.getCount());
+    }
+
+    @Test
+    public void abandonedListingStopsAtPrefetchWindow() throws Exception {
+        connect("7", "2");
+        Iterator<IpAddress> it = provider.getNetworkServices().getIpAddressSupport().listIpPool(IPVersion.IPV4, false).iterator();
+
+        for (int i = 0; i < 3; i++) {
+            it.next();
+        }
+        settle();
+        assertEquals(3, counter.getCount());
+    }
+
+    private int countIps() throws Exception {
+        HashSet<String> ids = new HashSet<String>();
+
+        for (IpAddress ip : provider.getNetworkServices().getIpAddressSupport().listIpPool(IPVersion.IPV4, false)) {
+            ids.add(ip.getProviderIpAddressId());
+        }
+        return ids.size();
+    }
+
+    private void settle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while (provider.getExecutor().getOutstandingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+    }
+
+    private void connect(String pageSize, String prefetch) throws Exception {
+        ProviderContext ctx = start(new CloudSigmaSimulator().withIps(SIZE));
+
+        if (pageSize != null) {
+            ctx.getCustomProperties().setProperty(PagedListing.PAGE_SIZE, pageSize);
+        }
+        if (prefetch != null) {
+            ctx.getCustomProperties().setProperty(PagedListing.PREFETCH, prefetch);
+        }
+        connect(ctx);
+        counter = new ApiCallCounter();
+        provider.addInterceptor(counter);
+    }
+}
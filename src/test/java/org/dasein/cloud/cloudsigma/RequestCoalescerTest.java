@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.cloudsigma.sim.CloudSigmaSimulator;
+import org.dasein.cloud.cloudsigma.sim.SimulatorFixture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that identical GETs issued at the same moment reach CloudSigma once and that a change made in between
+ * starts a fresh request.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class RequestCoalescerTest extends SimulatorFixture {
+    static private final int THREADS = 8;
+
+    @Test
+    public void concurrentGetsShareOneRequest() throws Exception {
+        connect();
+        String resource = "/servers/" + simulator.getIds(CloudSigmaSimulator.SERVERS).get(0) + "/";
+
+        assertEquals(THREADS, getConcurrently(resource, false));
+        assertEquals(1L, simulator.getRequestCount());
+        assertEquals(THREADS - 1, provider.getRequestCoalescer().getCoalescedCount());
+    }
+
+    @Test
+    public void freshGetsAreNotShared() throws Exception {
+        connect();
+        String resource = "/servers/" + simulator.getIds(CloudSigmaSimulator.SERVERS).get(0) + "/";
+
+        assertEquals(THREADS, getConcurrently(resource, true));
+        assertEquals((long)THREADS, simulator.getRequestCount());
+        assertEquals(0L, provider.getRequestCoalescer().getCoalescedCount());
+    }
+
+    @Test
+    public void sequentialGetsAreNotShared() throws Exception {
+        connect();
+        String resource = "/servers/" + simulator.getIds(CloudSigmaSimulator.SERVERS).get(0) + "/";
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        method.getString(resource);
+        method.getString(resource);
+        assertEquals(2L, simulator.getRequestCount());
+        assertEquals(0L, provider.getRequestCoalescer().getCoalescedCount());
+    }
+
+    private int getConcurrently(final String resource, final boolean fresh) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger answered = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+                        start.await();
+                        if ((fresh ? method.fresh() : method).getString(resource) != null) {
+                            answered.incrementAndGet();
+                        }
+                    } catch (Exception ignore) {
+                    }
+                }
+            };
+
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return answered.get();
+    }
+
+    private void connect() throws Exception {
+        connect(start(new CloudSigmaSimulator().withServers(1).withLatency(500L, 0L)));
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.sim.CloudSigmaSimulator;
+import org.dasein.cloud.cloudsigma.sim.SimulatorFixture;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that transient CloudSigma failures are retried away, that <code>Retry-After</code> values are read in both
+ * of their forms, and that the account rate limit spaces out requests.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class RetryInterceptorTest extends SimulatorFixture {
+    @Test
+    public void transientFailuresAreRetried() throws Exception {
+        connect(new CloudSigmaSimulator().withServers(1).withErrorRate(0.3).withSeed(42L), "0");
+        String resource = "/servers/" + simulator.getIds(CloudSigmaSimulator.SERVERS).get(0) + "/";
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(method.getString(resource));
+        }
+        assertTrue(simulator.getFailureCount() > 0L);
+        assertEquals(simulator.getFailureCount(), provider.getRetryInterceptor().getRetryCount());
+        assertEquals(0L, provider.getRetryInterceptor().getExhaustedCount());
+    }
+
+    @Test
+    public void retryAfterInSecondsAndAsDate() {
+        assertEquals(5000L, RetryInterceptor.parseRetryAfter("5"));
+        assertEquals(-1L, RetryInterceptor.parseRetryAfter(null));
+        assertEquals(-1L, RetryInterceptor.parseRetryAfter("soon"));
+        assertEquals(0L, RetryInterceptor.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT"));
+    }
+
+    @Test
+    public void rateLimitSpacesRequests() throws Exception {
+        connect(new CloudSigmaSimulator().withServers(1), "20");
+        String resource = "/servers/" + simulator.getIds(CloudSigmaSimulator.SERVERS).get(0) + "/";
+        CloudSigmaMethod method = new CloudSigmaMethod(provider);
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < 11; i++) {
+            method.getString(resource);
+        }
+        //one request from the burst, then ten more at 20 per second
+        assertTrue(System.currentTimeMillis() - start >= 450L);
+        assertTrue(provider.getRateLimiter().getThrottledCount() > 0L);
+    }
+
+    @Test
+    public void fractionalRatesAreAccepted() throws Exception {
+        connect(new CloudSigmaSimulator().withServers(1), "0.5");
+        assertEquals(0.5, provider.getRateLimiter().getRate(), 0.0);
+    }
+
+    @Test
+    public void unsetRateKeepsTheAccountLimit() throws Exception {
+        connect(new CloudSigmaSimulator().withServers(1), "20");
+        CloudSigma other = new CloudSigma();
+
+        other.connect(simulator.newContext());
+        try {
+            assertEquals(20.0, other.getRateLimiter().getRate(), 0.0);
+            assertEquals(20.0, provider.getRateLimiter().getRate(), 0.0);
+        } finally {
+            other.close();
+        }
+    }
+
+    private void connect(CloudSigmaSimulator sim, String rate) throws Exception {
+        ProviderContext ctx = start(sim);
+
+        ctx.getCustomProperties().setProperty(RetryInterceptor.BASE_DELAY, "1");
+        ctx.getCustomProperties().setProperty(RetryInterceptor.MAX_RETRIES, "10");
+        ctx.getCustomProperties().setProperty(RateLimiter.RATE, rate);
+        ctx.getCustomProperties().setProperty(RateLimiter.BURST, "1");
+        connect(ctx);
+    }
+}
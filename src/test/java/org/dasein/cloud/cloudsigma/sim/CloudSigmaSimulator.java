@@ -0,0 +1,416 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.sim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.CloudSigmaMetrics;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embeddable stand-in for the CloudSigma 2.0 API covering the endpoints this driver uses: <code>/servers</code>,
+ * <code>/drives</code>, <code>/libdrives</code>, <code>/ips</code>, <code>/vlans</code>, <code>/fwpolicies</code>
+ * and <code>/profile</code>. It listens on a local port, starts with an inventory of whatever size is asked for,
+ * and can add latency and failures to every response, so the driver can be exercised at scale with no credentials
+ * and no network.
+ * <pre>
+ *     CloudSigmaSimulator sim = new CloudSigmaSimulator().withServers(10000).withDrives(50000).withLatency(20, 10);
+ *
+ *     sim.start();
+ *     provider.connect(sim.newContext());
+ *     ...
+ *     sim.stop();
+ * </pre>
+ * Starting, stopping, cloning and creating take {@link #withTransitionMillis(long)} rather than minutes.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public class CloudSigmaSimulator {
+    /**
+     * The account that owns everything in the simulated inventory.
+     */
+    static public final String ACCOUNT = "00000000-0000-4000-8000-0000000000ac";
+
+    static public final String SERVERS    = SimulatedInventory.SERVERS;
+    static public final String DRIVES     = SimulatedInventory.DRIVES;
+    static public final String LIBDRIVES  = SimulatedInventory.LIBDRIVES;
+    static public final String IPS        = SimulatedInventory.IPS;
+    static public final String VLANS      = SimulatedInventory.VLANS;
+    static public final String FWPOLICIES = SimulatedInventory.FWPOLICIES;
+
+    static private final String API_ROOT = "/api/2.0";
+
+    private int    servers;
+    private int    drives;
+    private int    libraryDrives;
+    private int    ips;
+    private int    vlans;
+    private int    policies;
+    private long   latencyMillis    = 0L;
+    private long   jitterMillis     = 0L;
+    private double errorRate        = 0.0;
+    private long   transitionMillis = 100L;
+    private long   seed             = 0L;
+
+    private final AtomicLong   requests = new AtomicLong();
+    private final AtomicLong   failures = new AtomicLong();
+    private Random             random;
+    private SimulatedInventory inventory;
+    private HttpServer         server;
+    private ExecutorService    workers;
+
+    public CloudSigmaSimulator() {
+    }
+
+    /**
+     * @param count the number of servers, each with its own boot drive unless it boots from a library drive
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withServers(int count) {
+        servers = count;
+        return this;
+    }
+
+    /**
+     * @param count the number of data drives, the first of which are mounted one to a server
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withDrives(int count) {
+        drives = count;
+        return this;
+    }
+
+    /**
+     * @param count the number of library drives, which odd numbered servers boot from
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withLibraryDrives(int count) {
+        libraryDrives = count;
+        return this;
+    }
+
+    /**
+     * @param count the number of static IPs, the first of which are assigned one to a server
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withIps(int count) {
+        ips = count;
+        return this;
+    }
+
+    /**
+     * @param count the number of VLANs, which even numbered servers are spread across
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withVlans(int count) {
+        vlans = count;
+        return this;
+    }
+
+    /**
+     * @param count the number of firewall policies, each with one rule, which all servers are spread across
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withFirewallPolicies(int count) {
+        policies = count;
+        return this;
+    }
+
+    /**
+     * @param millis the delay added to every response
+     * @param jitter the most that is randomly added on top of the delay
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withLatency(long millis, long jitter) {
+        latencyMillis = millis;
+        jitterMillis = jitter;
+        return this;
+    }
+
+    /**
+     * @param fraction the share of requests, from 0 to 1, answered with a 503 instead of being processed
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withErrorRate(double fraction) {
+        errorRate = fraction;
+        return this;
+    }
+
+    /**
+     * @param millis how long starts, stops, clones and drive creation take; 0 completes them immediately
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withTransitionMillis(long millis) {
+        transitionMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param seed the seed for the latency jitter and failure injection, so runs can be repeated
+     * @return this simulator
+     */
+    public @Nonnull CloudSigmaSimulator withSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Builds the inventory and starts listening on a free local port.
+     * @throws IOException the port could not be opened
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        random = new Random(seed);
+        inventory = new SimulatedInventory(ACCOUNT, transitionMillis);
+        try {
+            inventory.populate(servers, drives, libraryDrives, ips, vlans, policies);
+        }
+        catch (JSONException e) {
+            throw new IOException("Unable to build the simulated inventory: " + e.getMessage());
+        }
+        workers = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(workers);
+        server.start();
+    }
+
+    /**
+     * Stops listening and discards the inventory.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    /**
+     * @return the API root of the running simulator, suitable as a provider endpoint
+     */
+    public synchronized @Nonnull String getEndpoint() {
+        if (server == null) {
+            throw new IllegalStateException("The simulator has not been started");
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort() + API_ROOT + "/";
+    }
+
+    /**
+     * Creates a context pointing at the running simulator. JMX publication of endpoint metrics is turned off so
+     * several providers can come and go within one JVM.
+     * @return a new context for the simulated account
+     */
+    public @Nonnull ProviderContext newContext() {
+        ProviderContext ctx = new ProviderContext();
+        Properties custom = new Properties();
+
+        custom.setProperty(CloudSigmaMetrics.JMX_ENABLED, "false");
+        ctx.setAccountNumber(ACCOUNT);
+        ctx.setAccessPublic(bytes("simulator"));
+        ctx.setAccessPrivate(bytes("simulator"));
+        ctx.setEndpoint(getEndpoint());
+        ctx.setRegionId("sim");
+        ctx.setCloudName("CloudSigma Simulator");
+        ctx.setProviderName("CloudSigma");
+        ctx.setCustomProperties(custom);
+        return ctx;
+    }
+
+    /**
+     * @return the number of requests received, including those answered with an injected failure
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with an injected failure
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @param type the resource type, such as {@link #SERVERS}
+     * @return the number of resources of that type currently in the inventory
+     */
+    public int count(@Nonnull String type) {
+        return inventory.count(type);
+    }
+
+    /**
+     * @param type the resource type, such as {@link #SERVERS}
+     * @return the IDs of the resources of that type in the order they were created
+     */
+    public @Nonnull List<String> getIds(@Nonnull String type) {
+        return inventory.getIds(type);
+    }
+
+    /**
+     * @param type the resource type, such as {@link #SERVERS}
+     * @param id the ID of the resource
+     * @return a copy of the resource as the API would return it, or null if there is no such resource
+     */
+    public @Nullable JSONObject get(@Nonnull String type, @Nonnull String id) {
+        try {
+            return inventory.copy(type, id);
+        }
+        catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void respond(@Nonnull HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getRawPath();
+        String body = read(exchange.getRequestBody());
+        SimulatedInventory.Reply reply;
+
+        requests.incrementAndGet();
+        pause();
+        if (path.startsWith(API_ROOT)) {
+            path = path.substring(API_ROOT.length());
+        }
+        if (fail()) {
+            failures.incrementAndGet();
+            reply = SimulatedInventory.error(503, "backend", "Simulated failure");
+        }
+        else {
+            try {
+                reply = inventory.handle(method, path, parseQuery(exchange.getRequestURI().getRawQuery()), body);
+            }
+            catch (JSONException e) {
+                reply = SimulatedInventory.error(400, "validation", "Invalid JSON: " + e.getMessage());
+            }
+        }
+        byte[] bytes = (reply.body == null ? new byte[0] : reply.body.getBytes("utf-8"));
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(reply.code, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    private void pause() {
+        long millis = latencyMillis;
+
+        if (jitterMillis > 0L) {
+            synchronized (this) {
+                millis += (long) (random.nextDouble() * jitterMillis);
+            }
+        }
+        if (millis > 0L) {
+            try {
+                Thread.sleep(millis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean fail() {
+        if (errorRate <= 0.0) {
+            return false;
+        }
+        synchronized (this) {
+            return random.nextDouble() < errorRate;
+        }
+    }
+
+    private @Nonnull Map<String, String> parseQuery(@Nullable String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int idx = pair.indexOf('=');
+
+            if (idx > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, idx), "utf-8"), URLDecoder.decode(pair.substring(idx + 1), "utf-8"));
+            }
+            else if (pair.length() > 0) {
+                parameters.put(URLDecoder.decode(pair, "utf-8"), "");
+            }
+        }
+        return parameters;
+    }
+
+    private @Nullable String read(@Nonnull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return (out.size() == 0 ? null : out.toString("utf-8"));
+    }
+
+    private @Nonnull byte[] bytes(@Nonnull String value) {
+        try {
+            return value.getBytes("utf-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,715 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.sim;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The resources held by a {@link CloudSigmaSimulator} and the rules for changing them. Servers and drives move
+ * through the same transitional statuses as in CloudSigma, only each transition takes a configurable and usually
+ * much shorter time. Transitions are applied lazily as requests come in, so the inventory needs no threads of its own.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+class SimulatedInventory {
+    static final String SERVERS    = "servers";
+    static final String DRIVES     = "drives";
+    static final String LIBDRIVES  = "libdrives";
+    static final String IPS        = "ips";
+    static final String VLANS      = "vlans";
+    static final String FWPOLICIES = "fwpolicies";
+    static final String PROFILE    = "profile";
+
+    static private final List<String> TYPES   = Arrays.asList(SERVERS, DRIVES, LIBDRIVES, IPS, VLANS, FWPOLICIES);
+    static private final List<String> SUMMARY = Arrays.asList("uuid", "name", "status", "owner", "resource_uri");
+
+    /**
+     * The outcome of one request against the inventory.
+     */
+    static class Reply {
+        final int    code;
+        final String body;
+
+        Reply(int code, @Nullable String body) {
+            this.code = code;
+            this.body = body;
+        }
+    }
+
+    static private class Transition {
+        private String type;
+        private String status;
+        private long   due;
+
+        private Transition(@Nonnull String type, @Nonnull String status, long due) {
+            this.type = type;
+            this.status = status;
+            this.due = due;
+        }
+    }
+
+    static @Nonnull Reply error(int code, @Nonnull String type, @Nonnull String message) {
+        try {
+            JSONObject error = new JSONObject();
+
+            error.put("error_point", JSONObject.NULL);
+            error.put("error_type", type);
+            error.put("error_message", message);
+            return new Reply(code, new JSONArray().put(error).toString());
+        }
+        catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final String                                       account;
+    private final Map<String, LinkedHashMap<String, JSONObject>> resources = new HashMap<String, LinkedHashMap<String, JSONObject>>();
+    private final Map<String, Transition>                      transitions = new LinkedHashMap<String, Transition>();
+    private final long                                         transitionMillis;
+    private int                                                sequence = 0;
+
+    SimulatedInventory(@Nonnull String account, long transitionMillis) {
+        this.account = account;
+        this.transitionMillis = transitionMillis;
+        for (String type : TYPES) {
+            resources.put(type, new LinkedHashMap<String, JSONObject>());
+        }
+    }
+
+    /**
+     * Fills the inventory with an account of the specified shape. Every server has a boot drive, which for odd
+     * servers is a library drive when there are any; the first data drives and IPs go one to each server; even
+     * servers sit in a VLAN; every server is protected by a firewall policy; and one server in four is stopped.
+     */
+    synchronized void populate(int servers, int drives, int libraryDrives, int ips, int vlans, int policies) throws JSONException {
+        for (int i = 0; i < vlans; i++) {
+            JSONObject vlan = add(VLANS, newId(VLANS));
+
+            vlan.put("meta", new JSONObject().put("name", "vlan-" + i));
+            vlan.put("servers", new JSONArray());
+        }
+        for (int i = 0; i < policies; i++) {
+            JSONObject rule = new JSONObject();
+
+            rule.put("direction", "in");
+            rule.put("ip_proto", "tcp");
+            rule.put("action", "accept");
+            rule.put("src_ip", "10." + (i / 250) + "." + (i % 250) + ".0/24");
+            rule.put("dst_port", "22");
+            add(FWPOLICIES, newId(FWPOLICIES)).put("name", "policy-" + i).put("rules", new JSONArray().put(rule)).put("servers", new JSONArray());
+        }
+        for (int i = 0; i < libraryDrives; i++) {
+            JSONObject drive = newDrive(add(LIBDRIVES, newId(LIBDRIVES)), "library-" + i, "unmounted");
+
+            drive.put("owner", JSONObject.NULL);
+            drive.put("image_type", "preinst");
+            drive.put("os", "linux");
+            drive.put("arch", "64");
+        }
+        List<String> vlanIds = getIds(VLANS), policyIds = getIds(FWPOLICIES), libraryIds = getIds(LIBDRIVES);
+
+        for (int i = 0; i < servers; i++) {
+            String bootId;
+
+            if (i % 2 == 1 && !libraryIds.isEmpty()) {
+                bootId = libraryIds.get(i % libraryIds.size());
+            }
+            else {
+                bootId = newDrive(add(DRIVES, newId(DRIVES)), "boot-" + i, "unmounted").getString("uuid");
+            }
+            JSONObject server = newServer(add(SERVERS, newId(SERVERS)), "server-" + i);
+            JSONObject nic = new JSONObject();
+
+            server.put("status", (i % 4 == 3 ? "stopped" : "running"));
+            server.getJSONArray("drives").put(new JSONObject().put("boot_order", 1).put("device", "virtio").put("dev_channel", "0:0").put("drive", bootId));
+            if (!vlanIds.isEmpty() && i % 2 == 0) {
+                nic.put("vlan", vlanIds.get(i % vlanIds.size()));
+            }
+            if (!policyIds.isEmpty()) {
+                nic.put("firewall_policy", policyIds.get(i % policyIds.size()));
+            }
+            server.getJSONArray("nics").put(nic);
+        }
+        List<String> serverIds = getIds(SERVERS);
+
+        for (int i = 0; i < drives; i++) {
+            String id = newDrive(add(DRIVES, newId(DRIVES)), "data-" + i, "unmounted").getString("uuid");
+
+            if (i < serverIds.size()) {
+                get(SERVERS, serverIds.get(i)).getJSONArray("drives").put(new JSONObject().put("device", "virtio").put("dev_channel", "0:1").put("drive", id));
+            }
+        }
+        for (int i = 0; i < ips; i++) {
+            String id = add(IPS, newId(IPS)).getString("uuid");
+
+            if (i < serverIds.size()) {
+                JSONObject nic = get(SERVERS, serverIds.get(i)).getJSONArray("nics").getJSONObject(0);
+
+                nic.put("ip_v4_conf", new JSONObject().put("conf", "static").put("ip", id));
+            }
+        }
+        for (String id : serverIds) {
+            JSONObject server = get(SERVERS, id);
+
+            normalize(server);
+            link(id, null, server);
+        }
+    }
+
+    /**
+     * Handles one request.
+     * @param method the HTTP verb
+     * @param path the request path relative to the API root
+     * @param query the decoded query parameters
+     * @param body the request body, if any
+     * @return the reply to send
+     */
+    synchronized @Nonnull Reply handle(@Nonnull String method, @Nonnull String path, @Nonnull Map<String, String> query, @Nullable String body) throws JSONException {
+        List<String> parts = new ArrayList<String>();
+
+        for (String part : path.split("/")) {
+            if (part.length() > 0) {
+                parts.add(part);
+            }
+        }
+        advance();
+        if (parts.size() == 1 && parts.get(0).equals(PROFILE)) {
+            return new Reply(200, new JSONObject().put("uuid", account).put("email", "simulator@example.com").put("currency", "USD").toString());
+        }
+        if (parts.isEmpty() || !TYPES.contains(parts.get(0))) {
+            return error(404, "notexist", "No such endpoint: " + path);
+        }
+        String type = parts.get(0);
+
+        if (parts.size() == 1) {
+            if (method.equals("GET")) {
+                return list(type, query, false);
+            }
+            if (method.equals("POST")) {
+                return create(type, body);
+            }
+        }
+        else if (parts.size() == 2 && parts.get(1).equals("detail")) {
+            if (method.equals("GET")) {
+                return list(type, query, true);
+            }
+        }
+        else if (parts.size() == 2) {
+            String id = parts.get(1);
+
+            if (method.equals("GET")) {
+                JSONObject object = get(type, id);
+
+                return (object == null ? error(404, "notexist", "Object with uuid " + id + " does not exist") : new Reply(200, object.toString()));
+            }
+            if (method.equals("PUT")) {
+                return update(type, id, body);
+            }
+            if (method.equals("DELETE")) {
+                return delete(type, id);
+            }
+        }
+        else if (parts.size() == 3 && parts.get(2).equals("action") && method.equals("POST")) {
+            return action(type, parts.get(1), query.get("do"), body);
+        }
+        return error(405, "notallowed", method + " is not allowed on " + path);
+    }
+
+    synchronized int count(@Nonnull String type) {
+        return resources.get(type).size();
+    }
+
+    synchronized @Nullable JSONObject copy(@Nonnull String type, @Nonnull String id) throws JSONException {
+        JSONObject object = get(type, id);
+
+        return (object == null ? null : new JSONObject(object.toString()));
+    }
+
+    synchronized @Nonnull List<String> getIds(@Nonnull String type) {
+        return new ArrayList<String>(resources.get(type).keySet());
+    }
+
+    private @Nonnull Reply list(@Nonnull String type, @Nonnull Map<String, String> query, boolean detail) throws JSONException {
+        Map<String, JSONObject> objects = resources.get(type);
+        int limit = parseInt(query.get("limit"), 0);
+        int offset = parseInt(query.get("offset"), 0);
+        String fields = query.get("fields");
+        List<String> projection = (fields != null ? Arrays.asList(fields.split(",")) : (detail ? null : SUMMARY));
+        JSONArray page = new JSONArray();
+        int index = 0;
+
+        for (JSONObject object : objects.values()) {
+            if (index++ < offset) {
+                continue;
+            }
+            if (limit > 0 && page.length() >= limit) {
+                break;
+            }
+            page.put(projection == null ? object : project(object, projection));
+        }
+        JSONObject meta = new JSONObject();
+
+        meta.put("limit", limit);
+        meta.put("offset", offset);
+        meta.put("total_count", objects.size());
+        return new Reply(200, new JSONObject().put("meta", meta).put("objects", page).toString());
+    }
+
+    private @Nonnull Reply create(@Nonnull String type, @Nullable String body) throws JSONException {
+        if (!type.equals(SERVERS) && !type.equals(DRIVES) && !type.equals(FWPOLICIES)) {
+            return error(405, "notallowed", "POST is not allowed on " + type);
+        }
+        JSONArray requested = toObjects(body);
+        JSONArray created = new JSONArray();
+
+        for (int i = 0; i < requested.length(); i++) {
+            JSONObject spec = requested.getJSONObject(i);
+            JSONObject object = add(type, newId(type));
+
+            if (type.equals(SERVERS)) {
+                newServer(object, spec.optString("name", object.getString("uuid")));
+                merge(object, spec);
+                normalize(object);
+                link(object.getString("uuid"), null, object);
+            }
+            else if (type.equals(DRIVES)) {
+                newDrive(object, spec.optString("name", object.getString("uuid")), "creating");
+                merge(object, spec);
+                transition(DRIVES, object.getString("uuid"), "unmounted");
+            }
+            else {
+                object.put("name", spec.optString("name", object.getString("uuid")));
+                object.put("rules", spec.has("rules") ? spec.getJSONArray("rules") : new JSONArray());
+                object.put("servers", new JSONArray());
+            }
+            created.put(object);
+        }
+        return new Reply(201, new JSONObject().put("objects", created).toString());
+    }
+
+    private @Nonnull Reply update(@Nonnull String type, @Nonnull String id, @Nullable String body) throws JSONException {
+        JSONObject object = get(type, id);
+
+        if (object == null) {
+            return error(404, "notexist", "Object with uuid " + id + " does not exist");
+        }
+        if (type.equals(LIBDRIVES) || type.equals(IPS)) {
+            return error(403, "permission", "You do not have permission to change " + id);
+        }
+        JSONObject before = new JSONObject(object.toString());
+
+        merge(object, toObject(body));
+        if (type.equals(SERVERS)) {
+            normalize(object);
+            link(id, before, object);
+        }
+        return new Reply(200, object.toString());
+    }
+
+    private @Nonnull Reply delete(@Nonnull String type, @Nonnull String id) throws JSONException {
+        JSONObject object = get(type, id);
+
+        if (object == null) {
+            return error(404, "notexist", "Object with uuid " + id + " does not exist");
+        }
+        if (type.equals(SERVERS) && !object.getString("status").equals("stopped")) {
+            return error(403, "permission", "Server " + id + " must be stopped before it is deleted");
+        }
+        if (type.equals(DRIVES) && object.getJSONArray("mounted_on").length() > 0) {
+            return error(403, "permission", "Drive " + id + " is mounted and cannot be deleted");
+        }
+        if (type.equals(LIBDRIVES) || type.equals(IPS) || type.equals(VLANS)) {
+            return error(403, "permission", "You do not have permission to delete " + id);
+        }
+        resources.get(type).remove(id);
+        transitions.remove(id);
+        if (type.equals(SERVERS)) {
+            link(id, object, null);
+        }
+        return new Reply(204, null);
+    }
+
+    private @Nonnull Reply action(@Nonnull String type, @Nonnull String id, @Nullable String action, @Nullable String body) throws JSONException {
+        JSONObject object = get(type, id);
+
+        if (object == null) {
+            return error(404, "notexist", "Object with uuid " + id + " does not exist");
+        }
+        if (action == null) {
+            return error(400, "validation", "No action was specified");
+        }
+        if (action.equals("clone")) {
+            if (type.equals(SERVERS)) {
+                return new Reply(202, cloneServer(object).toString());
+            }
+            if (type.equals(DRIVES) || type.equals(LIBDRIVES)) {
+                return new Reply(202, cloneDrive(object, toObject(body)).toString());
+            }
+        }
+        else if (type.equals(SERVERS)) {
+            String status = object.getString("status");
+
+            if (action.equals("start")) {
+                if (!status.equals("stopped")) {
+                    return error(403, "permission", "Cannot start server " + id + " while it is " + status);
+                }
+                object.put("status", "starting");
+                transition(SERVERS, id, "running");
+            }
+            else if (action.equals("stop") || action.equals("shutdown")) {
+                if (!status.equals("running")) {
+                    return error(403, "permission", "Cannot stop server " + id + " while it is " + status);
+                }
+                object.put("status", "stopping");
+                transition(SERVERS, id, "stopped");
+            }
+            else {
+                return error(400, "validation", "Unknown action " + action);
+            }
+            return new Reply(202, new JSONObject().put("action", action).put("result", "success").put("uuid", id).toString());
+        }
+        return error(400, "validation", "Unknown action " + action + " for " + type);
+    }
+
+    private @Nonnull JSONObject cloneDrive(@Nonnull JSONObject source, @Nonnull JSONObject spec) throws JSONException {
+        JSONObject drive = add(DRIVES, newId(DRIVES));
+
+        newDrive(drive, source.getString("name"), "cloning_dst");
+        drive.put("size", source.get("size"));
+        drive.put("media", source.optString("media", "disk"));
+        if (source.has("meta")) {
+            drive.put("meta", new JSONObject(source.getJSONObject("meta").toString()));
+        }
+        if (source.has("os")) {
+            drive.getJSONObject("meta").put("os", source.getString("os"));
+        }
+        merge(drive, spec);
+        transition(DRIVES, drive.getString("uuid"), "unmounted");
+        return drive;
+    }
+
+    private @Nonnull JSONObject cloneServer(@Nonnull JSONObject source) throws JSONException {
+        JSONObject server = add(SERVERS, newId(SERVERS));
+        JSONArray drives = new JSONArray();
+
+        merge(server, new JSONObject(source.toString()));
+        server.put("name", source.getString("name") + " - clone");
+        server.put("status", "stopped");
+        for (int i = 0; i < server.getJSONArray("drives").length(); i++) {
+            JSONObject attachment = server.getJSONArray("drives").getJSONObject(i);
+            String driveId = attachment.getJSONObject("drive").getString("uuid");
+            JSONObject drive = get(DRIVES, driveId);
+
+            if (drive == null) {
+                drive = get(LIBDRIVES, driveId);
+            }
+            if (drive != null) {
+                attachment.put("drive", cloneDrive(drive, new JSONObject()).getString("uuid"));
+                drives.put(attachment);
+            }
+        }
+        server.put("drives", drives);
+        JSONArray nics = server.getJSONArray("nics");
+
+        for (int i = 0; i < nics.length(); i++) {
+            //a static IP cannot be shared, so the clone falls back to DHCP
+            if (nics.getJSONObject(i).has("ip_v4_conf")) {
+                nics.getJSONObject(i).put("ip_v4_conf", new JSONObject().put("conf", "dhcp"));
+            }
+        }
+        normalize(server);
+        link(server.getString("uuid"), null, server);
+        return server;
+    }
+
+    /**
+     * Applies every transition that has fallen due.
+     */
+    private void advance() throws JSONException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Transition>> it = transitions.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Transition> entry = it.next();
+            Transition t = entry.getValue();
+
+            if (t.due > now) {
+                continue;
+            }
+            it.remove();
+            settle(t.type, entry.getKey(), t.status);
+        }
+    }
+
+    private void transition(@Nonnull String type, @Nonnull String id, @Nonnull String status) throws JSONException {
+        if (transitionMillis <= 0L) {
+            settle(type, id, status);
+            return;
+        }
+        transitions.put(id, new Transition(type, status, System.currentTimeMillis() + transitionMillis));
+    }
+
+    private void settle(@Nonnull String type, @Nonnull String id, @Nonnull String status) throws JSONException {
+        JSONObject object = get(type, id);
+
+        if (object == null) {
+            return;
+        }
+        //a drive that was attached while it was still being created comes up mounted
+        if (type.equals(DRIVES) && object.getJSONArray("mounted_on").length() > 0) {
+            object.put("status", "mounted");
+        }
+        else {
+            object.put("status", status);
+        }
+    }
+
+    /**
+     * Keeps the back references from drives, IPs, VLANs and firewall policies to a server in step with the server.
+     * @param serverId the server that changed
+     * @param before the server as it was, or null if it is new
+     * @param after the server as it is now, or null if it was deleted
+     */
+    private void link(@Nonnull String serverId, @Nullable JSONObject before, @Nullable JSONObject after) throws JSONException {
+        Map<String, Set<String>> old = references(before);
+        Map<String, Set<String>> current = references(after);
+
+        for (String type : Arrays.asList(DRIVES, IPS, VLANS, FWPOLICIES)) {
+            for (String id : old.get(type)) {
+                if (!current.get(type).contains(id)) {
+                    setReference(type, id, serverId, false);
+                }
+            }
+            for (String id : current.get(type)) {
+                if (!old.get(type).contains(id)) {
+                    setReference(type, id, serverId, true);
+                }
+            }
+        }
+    }
+
+    private void setReference(@Nonnull String type, @Nonnull String id, @Nonnull String serverId, boolean add) throws JSONException {
+        JSONObject object = get(type, id);
+
+        if (object == null) {
+            return;
+        }
+        if (type.equals(IPS)) {
+            object.put("server", add ? new JSONObject().put("uuid", serverId).put("resource_uri", uri(SERVERS, serverId)) : JSONObject.NULL);
+            return;
+        }
+        String key = (type.equals(DRIVES) ? "mounted_on" : "servers");
+        JSONArray current = object.getJSONArray(key);
+        JSONArray updated = new JSONArray();
+
+        for (int i = 0; i < current.length(); i++) {
+            if (!current.getJSONObject(i).getString("uuid").equals(serverId)) {
+                updated.put(current.getJSONObject(i));
+            }
+        }
+        if (add) {
+            updated.put(new JSONObject().put("uuid", serverId).put("resource_uri", uri(SERVERS, serverId)));
+        }
+        object.put(key, updated);
+        if (type.equals(DRIVES) && !transitions.containsKey(id)) {
+            object.put("status", updated.length() > 0 ? "mounted" : "unmounted");
+        }
+    }
+
+    private @Nonnull Map<String, Set<String>> references(@Nullable JSONObject server) throws JSONException {
+        Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+
+        for (String type : Arrays.asList(DRIVES, IPS, VLANS, FWPOLICIES)) {
+            references.put(type, new HashSet<String>());
+        }
+        if (server == null) {
+            return references;
+        }
+        JSONArray drives = server.getJSONArray("drives");
+
+        for (int i = 0; i < drives.length(); i++) {
+            references.get(DRIVES).add(drives.getJSONObject(i).getJSONObject("drive").getString("uuid"));
+        }
+        JSONArray nics = server.getJSONArray("nics");
+
+        for (int i = 0; i < nics.length(); i++) {
+            JSONObject nic = nics.getJSONObject(i);
+
+            if (nic.optJSONObject("vlan") != null) {
+                references.get(VLANS).add(nic.getJSONObject("vlan").getString("uuid"));
+            }
+            if (nic.optJSONObject("firewall_policy") != null) {
+                references.get(FWPOLICIES).add(nic.getJSONObject("firewall_policy").getString("uuid"));
+            }
+            JSONObject conf = nic.optJSONObject("ip_v4_conf");
+
+            if (conf != null && conf.optJSONObject("ip") != null) {
+                references.get(IPS).add(conf.getJSONObject("ip").getString("uuid"));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Expands the bare IDs clients send for drives, VLANs, firewall policies and IPs into the reference objects
+     * CloudSigma returns.
+     */
+    private void normalize(@Nonnull JSONObject server) throws JSONException {
+        JSONArray drives = server.getJSONArray("drives");
+
+        for (int i = 0; i < drives.length(); i++) {
+            expand(drives.getJSONObject(i), "drive", DRIVES);
+        }
+        JSONArray nics = server.getJSONArray("nics");
+
+        for (int i = 0; i < nics.length(); i++) {
+            JSONObject nic = nics.getJSONObject(i);
+
+            expand(nic, "vlan", VLANS);
+            expand(nic, "firewall_policy", FWPOLICIES);
+            if (nic.optJSONObject("ip_v4_conf") != null) {
+                expand(nic.getJSONObject("ip_v4_conf"), "ip", IPS);
+            }
+        }
+    }
+
+    private void expand(@Nonnull JSONObject parent, @Nonnull String key, @Nonnull String type) throws JSONException {
+        if (!parent.has(key) || parent.isNull(key)) {
+            return;
+        }
+        Object value = parent.get(key);
+        String id = (value instanceof JSONObject ? ((JSONObject) value).getString("uuid") : value.toString());
+
+        if (type.equals(DRIVES) && get(DRIVES, id) == null && get(LIBDRIVES, id) != null) {
+            type = LIBDRIVES;
+        }
+        parent.put(key, new JSONObject().put("uuid", id).put("resource_uri", uri(type, id)));
+    }
+
+    private @Nonnull JSONObject newServer(@Nonnull JSONObject server, @Nonnull String name) throws JSONException {
+        server.put("name", name);
+        server.put("status", "stopped");
+        server.put("cpu", "2000");
+        server.put("smp", "1");
+        server.put("mem", "2147483648");
+        server.put("vnc_password", "simulated");
+        server.put("meta", new JSONObject());
+        server.put("drives", new JSONArray());
+        server.put("nics", new JSONArray());
+        server.put("runtime", JSONObject.NULL);
+        return server;
+    }
+
+    private @Nonnull JSONObject newDrive(@Nonnull JSONObject drive, @Nonnull String name, @Nonnull String status) throws JSONException {
+        drive.put("name", name);
+        drive.put("status", status);
+        drive.put("size", "10737418240");
+        drive.put("media", "disk");
+        drive.put("meta", new JSONObject().put("os", "linux"));
+        drive.put("mounted_on", new JSONArray());
+        drive.put("affinities", new JSONArray());
+        return drive;
+    }
+
+    private @Nonnull JSONObject add(@Nonnull String type, @Nonnull String id) throws JSONException {
+        JSONObject object = new JSONObject();
+
+        object.put("uuid", id);
+        object.put("resource_uri", uri(type, id));
+        if (!type.equals(LIBDRIVES)) {
+            object.put("owner", new JSONObject().put("uuid", account).put("resource_uri", "/api/2.0/user/" + account + "/"));
+        }
+        resources.get(type).put(id, object);
+        return object;
+    }
+
+    private @Nullable JSONObject get(@Nonnull String type, @Nonnull String id) {
+        return resources.get(type).get(id);
+    }
+
+    private @Nonnull String newId(@Nonnull String type) {
+        int n = ++sequence;
+
+        if (type.equals(IPS)) {
+            return "10." + ((n >> 16) & 255) + "." + ((n >> 8) & 255) + "." + (n & 255);
+        }
+        return String.format("%08x-0000-4000-8000-%012x", TYPES.indexOf(type) + 1, n);
+    }
+
+    private void merge(@Nonnull JSONObject target, @Nonnull JSONObject changes) throws JSONException {
+        Iterator<?> keys = changes.keys();
+
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+
+            if (!key.equals("uuid") && !key.equals("owner") && !key.equals("resource_uri") && !key.equals("status")) {
+                target.put(key, changes.get(key));
+            }
+        }
+    }
+
+    private @Nonnull JSONObject project(@Nonnull JSONObject object, @Nonnull List<String> fields) throws JSONException {
+        JSONObject projected = new JSONObject();
+
+        for (String field : fields) {
+            if (object.has(field)) {
+                projected.put(field, object.get(field));
+            }
+        }
+        return projected;
+    }
+
+    private @Nonnull JSONObject toObject(@Nullable String body) throws JSONException {
+        return (body == null || body.trim().length() < 1 ? new JSONObject() : new JSONObject(body));
+    }
+
+    private @Nonnull JSONArray toObjects(@Nullable String body) throws JSONException {
+        JSONObject json = toObject(body);
+
+        return (json.has("objects") ? json.getJSONArray("objects") : new JSONArray().put(json));
+    }
+
+    private @Nonnull String uri(@Nonnull String type, @Nonnull String id) {
+        return "/api/2.0/" + type + "/" + id + "/";
+    }
+
+    private int parseInt(@Nullable String value, int defaultValue) {
+        try {
+            return (value == null ? defaultValue : Integer.parseInt(value));
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.cloudsigma.sim;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.cloudsigma.CloudSigma;
+import org.junit.After;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Base for tests that run the driver against a {@link CloudSigmaSimulator}. A test starts its simulator with
+ * {@link #start(CloudSigmaSimulator)}, adjusts the returned context if it needs to, and connects with
+ * {@link #connect(ProviderContext)}; both are shut down after each test.
+ * @version 2013.07 initial version
+ * @since 2013.07
+ */
+public abstract class SimulatorFixture {
+    protected CloudSigma          provider;
+    protected CloudSigmaSimulator simulator;
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.close();
+            provider = null;
+        }
+        if (simulator != null) {
+            simulator.stop();
+            simulator = null;
+        }
+    }
+
+    protected @Nonnull ProviderContext start(@Nonnull CloudSigmaSimulator sim) throws Exception {
+        simulator = sim;
+        simulator.start();
+        return simulator.newContext();
+    }
+
+    protected @Nonnull CloudSigma connect(@Nonnull ProviderContext ctx) throws Exception {
+        provider = new CloudSigma();
+        provider.connect(ctx);
+        return provider;
+    }
+}